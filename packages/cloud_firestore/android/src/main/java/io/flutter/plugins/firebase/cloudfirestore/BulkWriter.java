@@ -0,0 +1,296 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a stream of operations as a series of {@link WriteBatch}es.
+ *
+ * <p>Operations are split into batches of at most {@link #MAX_BATCH_SIZE} operations, and up to
+ * {@code maxConcurrentBatches} batches are committed at the same time. Batches that fail with a
+ * transient error are retried with exponential backoff, and all their operations are reported as
+ * failed once the retries are used up. Batches that fail otherwise are split in halves until the
+ * failing operations are isolated, so that every other operation is still written. The writes are
+ * therefore not atomic as a whole.
+ *
+ * <p>All methods must be called on the UI thread.
+ */
+final class BulkWriter {
+  /** The maximum number of operations Firestore accepts in a single batch. */
+  static final int MAX_BATCH_SIZE = 500;
+
+  private static final long MAX_BACKOFF_MILLIS = 30000;
+
+  interface ProgressListener {
+    void onProgress(Map<String, Object> progress);
+  }
+
+  /** Runs retries once their backoff has passed. */
+  interface RetryScheduler {
+    void schedule(Runnable retry, long delayMillis);
+  }
+
+  private static final class Chunk {
+    final List<Map<String, Object>> operations;
+    final List<Integer> indexes;
+    int attempts = 0;
+
+    Chunk(List<Map<String, Object>> operations, List<Integer> indexes) {
+      this.operations = operations;
+      this.indexes = indexes;
+    }
+  }
+
+  private final FirebaseFirestore firestore;
+  private final int maxConcurrentBatches;
+  private final int maxRetries;
+  private final long initialBackoffMillis;
+  private final ProgressListener progressListener;
+  private final RetryScheduler retryScheduler;
+
+  private final ArrayDeque<Chunk> queue = new ArrayDeque<>();
+  private int inFlight = 0;
+  private int waitingForRetry = 0;
+  private int committed = 0;
+  private int failed = 0;
+  private int retries = 0;
+  private List<Map<String, Object>> newFailures = new ArrayList<>();
+  private Result pendingAdd;
+  private Result pendingClose;
+  private boolean aborted = false;
+
+  BulkWriter(
+      FirebaseFirestore firestore,
+      int maxConcurrentBatches,
+      int maxRetries,
+      long initialBackoffMillis,
+      ProgressListener progressListener) {
+    this(
+        firestore,
+        maxConcurrentBatches,
+        maxRetries,
+        initialBackoffMillis,
+        progressListener,
+        new RetryScheduler() {
+          private final Handler handler = new Handler(Looper.getMainLooper());
+
+          @Override
+          public void schedule(Runnable retry, long delayMillis) {
+            handler.postDelayed(retry, delayMillis);
+          }
+        });
+  }
+
+  @VisibleForTesting
+  BulkWriter(
+      FirebaseFirestore firestore,
+      int maxConcurrentBatches,
+      int maxRetries,
+      long initialBackoffMillis,
+      ProgressListener progressListener,
+      RetryScheduler retryScheduler) {
+    this.firestore = firestore;
+    this.maxConcurrentBatches = maxConcurrentBatches;
+    this.maxRetries = maxRetries;
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.progressListener = progressListener;
+    this.retryScheduler = retryScheduler;
+  }
+
+  /**
+   * Queues {@code operations}, the first of which has the index {@code startIndex} in the stream.
+   *
+   * <p>{@code result} is only completed once there is room for more batches, which keeps the
+   * number of operations held in memory bounded.
+   */
+  void add(List<Map<String, Object>> operations, int startIndex, Result result) {
+    for (int start = 0; start < operations.size(); start += MAX_BATCH_SIZE) {
+      int end = Math.min(start + MAX_BATCH_SIZE, operations.size());
+      List<Integer> indexes = new ArrayList<>();
+      for (int i = start; i < end; i++) {
+        indexes.add(startIndex + i);
+      }
+      queue.add(new Chunk(new ArrayList<>(operations.subList(start, end)), indexes));
+    }
+    pendingAdd = result;
+    pump();
+  }
+
+  /** Completes {@code result} with the totals once all queued operations have been written. */
+  void close(Result result) {
+    pendingClose = result;
+    pump();
+  }
+
+  /**
+   * Stops writing the queued operations, e.g. because the Dart side failed to produce them.
+   * Batches that are being committed still complete.
+   */
+  void abort() {
+    aborted = true;
+    queue.clear();
+    if (pendingAdd != null) {
+      Result result = pendingAdd;
+      pendingAdd = null;
+      result.success(null);
+    }
+  }
+
+  private void pump() {
+    while (inFlight < maxConcurrentBatches && !queue.isEmpty()) {
+      commit(queue.poll());
+    }
+    if (pendingAdd != null && queue.size() < maxConcurrentBatches) {
+      Result result = pendingAdd;
+      pendingAdd = null;
+      result.success(null);
+    }
+    if (pendingClose != null && queue.isEmpty() && inFlight == 0 && waitingForRetry == 0) {
+      Map<String, Object> totals = new HashMap<>();
+      totals.put("committed", committed);
+      totals.put("failed", failed);
+      totals.put("retries", retries);
+      Result result = pendingClose;
+      pendingClose = null;
+      result.success(totals);
+    }
+  }
+
+  private void commit(final Chunk chunk) {
+    WriteBatch batch = firestore.batch();
+    List<Map<String, Object>> validOperations = new ArrayList<>();
+    List<Integer> validIndexes = new ArrayList<>();
+    for (int i = 0; i < chunk.operations.size(); i++) {
+      try {
+        CloudFirestorePlugin.addBatchOperation(firestore, batch, chunk.operations.get(i));
+        validOperations.add(chunk.operations.get(i));
+        validIndexes.add(chunk.indexes.get(i));
+      } catch (RuntimeException e) {
+        // Invalid operations, such as ones with a wrong type or malformed data, can never
+        // succeed, so they are reported right away.
+        addFailure(chunk.indexes.get(i), chunk.operations.get(i), "INVALID_ARGUMENT", e);
+      }
+    }
+    if (validOperations.size() < chunk.operations.size()) {
+      chunk.operations.clear();
+      chunk.operations.addAll(validOperations);
+      chunk.indexes.clear();
+      chunk.indexes.addAll(validIndexes);
+    }
+    if (chunk.operations.isEmpty()) {
+      reportProgress();
+      return;
+    }
+    inFlight++;
+    Task<Void> task = batch.commit();
+    task.addOnCompleteListener(
+        new OnCompleteListener<Void>() {
+          @Override
+          public void onComplete(@NonNull Task<Void> task) {
+            inFlight--;
+            if (task.isSuccessful()) {
+              committed += chunk.operations.size();
+            } else {
+              onCommitFailed(chunk, task.getException());
+            }
+            reportProgress();
+            pump();
+          }
+        });
+  }
+
+  private void onCommitFailed(final Chunk chunk, Exception e) {
+    String code =
+        e instanceof FirebaseFirestoreException
+            ? ((FirebaseFirestoreException) e).getCode().name()
+            : "UNKNOWN";
+    if (isTransient(e)) {
+      if (chunk.attempts >= maxRetries) {
+        // Splitting the batch would not help, and would multiply the retries during an outage.
+        for (int i = 0; i < chunk.operations.size(); i++) {
+          addFailure(chunk.indexes.get(i), chunk.operations.get(i), code, e);
+        }
+        return;
+      }
+      long backoff = Math.min(initialBackoffMillis << chunk.attempts, MAX_BACKOFF_MILLIS);
+      chunk.attempts++;
+      retries++;
+      waitingForRetry++;
+      retryScheduler.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              waitingForRetry--;
+              if (!aborted) queue.addFirst(chunk);
+              pump();
+            }
+          },
+          backoff);
+    } else if (chunk.operations.size() > 1) {
+      if (aborted) return;
+      int middle = chunk.operations.size() / 2;
+      queue.addFirst(
+          new Chunk(
+              new ArrayList<>(chunk.operations.subList(middle, chunk.operations.size())),
+              new ArrayList<>(chunk.indexes.subList(middle, chunk.indexes.size()))));
+      queue.addFirst(
+          new Chunk(
+              new ArrayList<>(chunk.operations.subList(0, middle)),
+              new ArrayList<>(chunk.indexes.subList(0, middle))));
+    } else {
+      addFailure(chunk.indexes.get(0), chunk.operations.get(0), code, e);
+    }
+  }
+
+  private static boolean isTransient(Exception e) {
+    if (!(e instanceof FirebaseFirestoreException)) return false;
+    switch (((FirebaseFirestoreException) e).getCode()) {
+      case ABORTED:
+      case UNAVAILABLE:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+      case INTERNAL:
+      case UNKNOWN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void addFailure(int index, Map<String, Object> operation, String code, Exception e) {
+    failed++;
+    Map<String, Object> failure = new HashMap<>();
+    failure.put("index", index);
+    failure.put("path", operation.get("path"));
+    failure.put("code", code);
+    failure.put("message", e != null ? e.getMessage() : null);
+    newFailures.add(failure);
+  }
+
+  private void reportProgress() {
+    Map<String, Object> progress = new HashMap<>();
+    progress.put("committed", committed);
+    progress.put("failed", failed);
+    progress.put("retries", retries);
+    progress.put("failures", newFailures);
+    newFailures = new ArrayList<>();
+    progressListener.onProgress(progress);
+  }
+}
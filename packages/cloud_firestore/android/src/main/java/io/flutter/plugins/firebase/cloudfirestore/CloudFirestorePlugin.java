@@ -5,8 +5,12 @@
 package io.flutter.plugins.firebase.cloudfirestore;
 
 import android.app.Activity;
-import android.os.AsyncTask;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.LruCache;
 import android.util.SparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -17,6 +21,8 @@ import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.FirebaseApp;
+import com.google.firebase.FirebaseAppLifecycleListener;
+import com.google.firebase.FirebaseOptions;
 import com.google.firebase.Timestamp;
 import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.CollectionReference;
@@ -34,9 +40,11 @@ import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.SnapshotMetadata;
 import com.google.firebase.firestore.Source;
 import com.google.firebase.firestore.Transaction;
 import com.google.firebase.firestore.WriteBatch;
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
@@ -48,6 +56,7 @@ import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -57,36 +66,194 @@ import java.util.concurrent.TimeUnit;
 public class CloudFirestorePlugin implements MethodCallHandler {
 
   private static final String TAG = "CloudFirestorePlugin";
+  private static final String CHANNEL_NAME = "plugins.flutter.io/cloud_firestore";
+  private static final StandardMethodCodec METHOD_CODEC =
+      new StandardMethodCodec(FirestoreMessageCodec.INSTANCE);
+  private static final int QUERY_CACHE_SIZE = 64;
+  private static final int FIRESTORE_CACHE_SIZE = 8;
   private final MethodChannel channel;
+  private final BinaryMessenger messenger;
   private final Activity activity;
+  private final QueryPrewarmer prewarmer;
+  private final FirestoreStats stats = new FirestoreStats();
+  private final SnapshotSerializer serializer = new SnapshotSerializer();
+  private final TransactionExecutor transactionExecutor = new TransactionExecutor();
+  private final QueryCache queryCache = new QueryCache(QUERY_CACHE_SIZE);
+  private final LruCache<String, FirebaseFirestore> firestoreCache =
+      new LruCache<>(FIRESTORE_CACHE_SIZE);
+  // Listeners that evict the caches when an app is deleted, removed with the activity.
+  private final Map<FirebaseApp, FirebaseAppLifecycleListener> appListeners = new HashMap<>();
 
   // Handles are ints used as indexes into the sparse array of active observers
   private int nextListenerHandle = 0;
   private int nextBatchHandle = 0;
+  private int nextBulkWriterHandle = 0;
+  private int nextChunkedQueryHandle = 0;
+  private int nextCursorHandle = 0;
   private final SparseArray<EventObserver> observers = new SparseArray<>();
+  private final Map<String, EventObserver> sharedObservers = new HashMap<>();
   private final SparseArray<DocumentObserver> documentObservers = new SparseArray<>();
   private final SparseArray<ListenerRegistration> listenerRegistrations = new SparseArray<>();
   private final SparseArray<WriteBatch> batches = new SparseArray<>();
+  private final SparseArray<BulkWriter> bulkWriters = new SparseArray<>();
+  // Results of Query#getDocumentsChunked that still have chunks to be fetched.
+  private final SparseArray<QuerySnapshot> chunkedQueries = new SparseArray<>();
+  private final SparseArray<QueryCursor> cursors = new SparseArray<>();
   private final SparseArray<Transaction> transactions = new SparseArray<>();
   private final SparseArray<TaskCompletionSource> completionTasks = new SparseArray<>();
 
+  private boolean activityStopped = false;
+  private int pausedListeners = 0;
+  private int listenerPauses = 0;
+  private long pausedListenerMillis = 0;
+
   public static void registerWith(PluginRegistry.Registrar registrar) {
     final MethodChannel channel =
-        new MethodChannel(
-            registrar.messenger(),
-            "plugins.flutter.io/cloud_firestore",
-            new StandardMethodCodec(FirestoreMessageCodec.INSTANCE));
-    channel.setMethodCallHandler(new CloudFirestorePlugin(channel, registrar.activity()));
+        new MethodChannel(registrar.messenger(), CHANNEL_NAME, METHOD_CODEC);
+    final CloudFirestorePlugin plugin =
+        new CloudFirestorePlugin(
+            channel, registrar.messenger(), registrar.activity(), registrar.context());
+    channel.setMethodCallHandler(plugin);
+    plugin.prewarmer.start(
+        new QueryPrewarmer.Delegate() {
+          @Override
+          public void applySettings(Map<String, Object> settings) {
+            plugin.applySettings(settings);
+          }
+
+          @Override
+          public Query getQuery(Map<String, Object> arguments) {
+            return plugin.getQuery(arguments);
+          }
+        });
   }
 
-  private CloudFirestorePlugin(MethodChannel channel, Activity activity) {
+  private CloudFirestorePlugin(
+      MethodChannel channel,
+      BinaryMessenger messenger,
+      final Activity activity,
+      Context context) {
     this.channel = channel;
+    this.messenger = messenger;
     this.activity = activity;
+    this.prewarmer = new QueryPrewarmer(context);
+    if (activity != null && activity.getApplication() != null) {
+      activity
+          .getApplication()
+          .registerActivityLifecycleCallbacks(
+              new Application.ActivityLifecycleCallbacks() {
+                @Override
+                public void onActivityCreated(Activity created, Bundle savedInstanceState) {}
+
+                @Override
+                public void onActivityStarted(Activity started) {
+                  if (started == activity) resumeListeners();
+                }
+
+                @Override
+                public void onActivityResumed(Activity resumed) {}
+
+                @Override
+                public void onActivityPaused(Activity paused) {}
+
+                @Override
+                public void onActivityStopped(Activity stopped) {
+                  if (stopped == activity) pauseListeners();
+                }
+
+                @Override
+                public void onActivitySaveInstanceState(Activity saved, Bundle outState) {}
+
+                @Override
+                public void onActivityDestroyed(Activity destroyed) {
+                  if (destroyed != activity) return;
+                  // A recreated activity registers a new instance of the plugin.
+                  destroyed.getApplication().unregisterActivityLifecycleCallbacks(this);
+                  removeAllListeners();
+                }
+              });
+    }
+  }
+
+  /**
+   * Removes the registrations of all listeners, once the plugin's activity is destroyed, so that
+   * nothing outside the plugin keeps it alive.
+   */
+  private void removeAllListeners() {
+    for (EventObserver observer : sharedObservers.values()) {
+      if (observer.registration != null) observer.registration.remove();
+      stats.removeListener(observer.listenerStats);
+    }
+    for (int i = 0; i < listenerRegistrations.size(); i++) {
+      listenerRegistrations.valueAt(i).remove();
+    }
+    sharedObservers.clear();
+    observers.clear();
+    listenerRegistrations.clear();
+    documentObservers.clear();
+    pausedListeners = 0;
+    for (Map.Entry<FirebaseApp, FirebaseAppLifecycleListener> entry : appListeners.entrySet()) {
+      entry.getKey().removeLifecycleEventListener(entry.getValue());
+    }
+    appListeners.clear();
+  }
+
+  /** Removes the registrations of the listeners that pause while the activity is stopped. */
+  private void pauseListeners() {
+    activityStopped = true;
+    for (EventObserver observer : sharedObservers.values()) {
+      if (observer.pauseInBackground && observer.registration != null) {
+        observer.registration.remove();
+        observer.registration = null;
+        observer.pausedAtMillis = SystemClock.uptimeMillis();
+        pausedListeners++;
+        listenerPauses++;
+      }
+    }
+  }
+
+  /** Registers the paused listeners again, each of which then sends one catch-up snapshot. */
+  private void resumeListeners() {
+    activityStopped = false;
+    for (final EventObserver observer : sharedObservers.values()) {
+      if (observer.registration != null) continue;
+      // The observer's state is owned by the serializer thread, which also
+      // receives the events of the new registration after this.
+      serializer.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              observer.resuming = true;
+            }
+          });
+      observer.registration = observer.query.addSnapshotListener(serializer, observer);
+      pausedListenerMillis += SystemClock.uptimeMillis() - observer.pausedAtMillis;
+      pausedListeners--;
+    }
   }
 
   private FirebaseFirestore getFirestore(Map<String, Object> arguments) {
     String appName = (String) arguments.get("app");
-    return FirebaseFirestore.getInstance(FirebaseApp.getInstance(appName));
+    FirebaseFirestore firestore = firestoreCache.get(appName);
+    if (firestore == null) {
+      FirebaseApp app = FirebaseApp.getInstance(appName);
+      firestore = FirebaseFirestore.getInstance(app);
+      firestoreCache.put(appName, firestore);
+      if (!appListeners.containsKey(app)) {
+        FirebaseAppLifecycleListener listener =
+            new FirebaseAppLifecycleListener() {
+              @Override
+              public void onDeleted(String firebaseAppName, FirebaseOptions options) {
+                // The instance and its queries can't be used anymore.
+                firestoreCache.remove(firebaseAppName);
+                queryCache.evictApp(firebaseAppName);
+              }
+            };
+        appListeners.put(app, listener);
+        app.addLifecycleEventListener(listener);
+      }
+    }
+    return firestore;
   }
 
   private Query getReference(Map<String, Object> arguments) {
@@ -145,27 +312,128 @@ public class CloudFirestorePlugin implements MethodCallHandler {
     return data.toArray();
   }
 
-  private Map<String, Object> parseQuerySnapshot(QuerySnapshot querySnapshot) {
+  private Map<String, Object> parseDocumentSnapshot(DocumentSnapshot documentSnapshot) {
+    return parseDocumentSnapshot(documentSnapshot, null);
+  }
+
+  /** Describes a document snapshot, with only the {@code select} fields if it is not null. */
+  private Map<String, Object> parseDocumentSnapshot(
+      DocumentSnapshot documentSnapshot, @Nullable List<String> select) {
+    Map<String, Object> snapshotMap = new HashMap<>();
+    snapshotMap.put("metadata", documentSnapshot.getMetadata());
+    snapshotMap.put("path", documentSnapshot.getReference().getPath());
+    if (documentSnapshot.exists()) {
+      snapshotMap.put("data", FieldProjection.getData(documentSnapshot, select));
+    } else {
+      snapshotMap.put("data", null);
+    }
+    return snapshotMap;
+  }
+
+  /** Describes why the document at {@code path} could not be read. */
+  private Map<String, Object> parseDocumentError(String path, Exception exception) {
+    Map<String, Object> documentError = new HashMap<>();
+    documentError.put("path", path);
+    documentError.put("error", parseException(exception));
+    return documentError;
+  }
+
+  private static Map<String, Object> parseException(Exception exception) {
+    Map<String, Object> error = new HashMap<>();
+    error.put(
+        "code",
+        exception instanceof FirebaseFirestoreException
+            ? ((FirebaseFirestoreException) exception).getCode().name()
+            : "UNKNOWN");
+    error.put("message", exception != null ? exception.getMessage() : null);
+    return error;
+  }
+
+  private Map<String, Object> parseQuerySnapshot(
+      QuerySnapshot querySnapshot, @Nullable List<String> select) {
     if (querySnapshot == null) return new HashMap<>();
+    Map<String, Object> data = parseDocuments(querySnapshot.getDocuments(), select);
+    data.put("documentChanges", parseDocumentChanges(querySnapshot, select));
+
+    return data;
+  }
+
+  /**
+   * Describes documents as the paths, documents and metadatas lists of a query snapshot.
+   *
+   * <p>The lists are not built here: {@link FirestoreMessageCodec} writes each of them straight
+   * from {@code documentSnapshots} when the result is encoded. If {@code select} is not null, the
+   * documents only contain those fields.
+   */
+  private Map<String, Object> parseDocuments(
+      List<DocumentSnapshot> documentSnapshots, @Nullable List<String> select) {
     Map<String, Object> data = new HashMap<>();
+    data.put("paths", new DocumentColumn(documentSnapshots, DocumentColumn.Field.PATH, null));
+    data.put("documents", new DocumentColumn(documentSnapshots, DocumentColumn.Field.DATA, select));
+    data.put(
+        "metadatas", new DocumentColumn(documentSnapshots, DocumentColumn.Field.METADATA, null));
+    return data;
+  }
+
+  /**
+   * Describes the changes from the documents of {@code from} to those of {@code to} like {@link
+   * #parseDocumentChanges} does, for a snapshot that is delivered in place of several others.
+   *
+   * <p>Removals come first, from the last index down, followed by additions and moves in the
+   * order of {@code to}, so that applying them one after the other to the documents of {@code
+   * from} yields the documents of {@code to}.
+   */
+  private List<Map<String, Object>> diffDocumentChanges(
+      QuerySnapshot from, QuerySnapshot to, @Nullable List<String> select) {
+    List<Map<String, Object>> documentChanges = new ArrayList<>();
+    Map<String, DocumentSnapshot> oldDocuments = new HashMap<>();
+    for (DocumentSnapshot document : from.getDocuments()) {
+      oldDocuments.put(document.getReference().getPath(), document);
+    }
+    Map<String, DocumentSnapshot> newDocuments = new HashMap<>();
+    for (DocumentSnapshot document : to.getDocuments()) {
+      newDocuments.put(document.getReference().getPath(), document);
+    }
+
     List<String> paths = new ArrayList<>();
-    List<Map<String, Object>> documents = new ArrayList<>();
-    List<Map<String, Object>> metadatas = new ArrayList<>();
-    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+    for (DocumentSnapshot document : from.getDocuments()) {
       paths.add(document.getReference().getPath());
-      documents.add(document.getData());
-      Map<String, Object> metadata = new HashMap<String, Object>();
-      metadata.put("hasPendingWrites", document.getMetadata().hasPendingWrites());
-      metadata.put("isFromCache", document.getMetadata().isFromCache());
-      metadatas.add(metadata);
     }
-    data.put("paths", paths);
-    data.put("documents", documents);
-    data.put("metadatas", metadatas);
+    for (int i = paths.size() - 1; i >= 0; i--) {
+      if (!newDocuments.containsKey(paths.get(i))) {
+        documentChanges.add(
+            parseDocumentChange(
+                "DocumentChangeType.removed", i, -1, oldDocuments.get(paths.get(i)), select));
+        paths.remove(i);
+      }
+    }
 
+    List<DocumentSnapshot> documents = to.getDocuments();
+    for (int i = 0; i < documents.size(); i++) {
+      DocumentSnapshot document = documents.get(i);
+      String path = document.getReference().getPath();
+      DocumentSnapshot oldDocument = oldDocuments.get(path);
+      if (oldDocument == null) {
+        documentChanges.add(
+            parseDocumentChange("DocumentChangeType.added", -1, i, document, select));
+        paths.add(i, path);
+      } else {
+        int oldIndex = paths.indexOf(path);
+        if (oldIndex != i || !document.equals(oldDocument)) {
+          documentChanges.add(
+              parseDocumentChange("DocumentChangeType.modified", oldIndex, i, document, select));
+          paths.remove(oldIndex);
+          paths.add(i, path);
+        }
+      }
+    }
+    return documentChanges;
+  }
+
+  private List<Map<String, Object>> parseDocumentChanges(
+      QuerySnapshot querySnapshot, @Nullable List<String> select) {
     List<Map<String, Object>> documentChanges = new ArrayList<>();
     for (DocumentChange documentChange : querySnapshot.getDocumentChanges()) {
-      Map<String, Object> change = new HashMap<>();
       String type = null;
       switch (documentChange.getType()) {
         case ADDED:
@@ -178,28 +446,177 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           type = "DocumentChangeType.removed";
           break;
       }
-      change.put("type", type);
-      change.put("oldIndex", documentChange.getOldIndex());
-      change.put("newIndex", documentChange.getNewIndex());
-      change.put("document", documentChange.getDocument().getData());
-      change.put("path", documentChange.getDocument().getReference().getPath());
-      Map<String, Object> metadata = new HashMap();
-      metadata.put(
-          "hasPendingWrites", documentChange.getDocument().getMetadata().hasPendingWrites());
-      metadata.put("isFromCache", documentChange.getDocument().getMetadata().isFromCache());
-      change.put("metadata", metadata);
-      documentChanges.add(change);
-    }
-    data.put("documentChanges", documentChanges);
+      documentChanges.add(
+          parseDocumentChange(
+              type,
+              documentChange.getOldIndex(),
+              documentChange.getNewIndex(),
+              documentChange.getDocument(),
+              select));
+    }
+    return documentChanges;
+  }
 
-    return data;
+  /** Describes every document of the snapshot as added, like the first snapshot of a listener. */
+  private List<Map<String, Object>> parseInitialDocumentChanges(
+      QuerySnapshot querySnapshot, @Nullable List<String> select) {
+    List<Map<String, Object>> documentChanges = new ArrayList<>();
+    List<DocumentSnapshot> documents = querySnapshot.getDocuments();
+    for (int i = 0; i < documents.size(); i++) {
+      documentChanges.add(
+          parseDocumentChange("DocumentChangeType.added", -1, i, documents.get(i), select));
+    }
+    return documentChanges;
+  }
+
+  private Map<String, Object> parseDocumentChange(
+      String type,
+      int oldIndex,
+      int newIndex,
+      DocumentSnapshot document,
+      @Nullable List<String> select) {
+    Map<String, Object> change = new HashMap<>();
+    change.put("type", type);
+    change.put("oldIndex", oldIndex);
+    change.put("newIndex", newIndex);
+    change.put("document", FieldProjection.getData(document, select));
+    change.put("path", document.getReference().getPath());
+    change.put("metadata", document.getMetadata());
+    return change;
+  }
+
+  /**
+   * Encodes a method call on the current (background) thread and only posts the encoded message to
+   * the UI thread. Returns the size of the message in bytes.
+   */
+  private int sendEncoded(String method, Map<String, Object> arguments, long startNanos) {
+    final ByteBuffer message =
+        FirestoreMessageCodec.INSTANCE.encodeMethodCall(new MethodCall(method, arguments));
+    serializer.recordSerialization(System.nanoTime() - startNanos);
+    stats.recordMessage(method, message.capacity());
+    serializer.postToUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            messenger.send(CHANNEL_NAME, message);
+          }
+        });
+    return message.capacity();
+  }
+
+  /**
+   * Encodes a result on the current (background) thread and only posts the encoded bytes to the UI
+   * thread. The Dart side decodes the bytes with the same message codec.
+   */
+  private void successEncoded(final Result result, Object value, long startNanos) {
+    final byte[] payload = FirestoreMessageCodec.INSTANCE.encodeToByteArray(value);
+    serializer.recordSerialization(System.nanoTime() - startNanos);
+    serializer.postToUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            result.success(payload);
+          }
+        });
   }
 
   private Transaction getTransaction(Map<String, Object> arguments) {
     return transactions.get((Integer) arguments.get("transactionId"));
   }
 
+  /**
+   * Applies {@code operations} to the transaction of {@code arguments} on the transaction
+   * executor, and replies with the list of their results, or only the first result unless {@code
+   * batch} is set.
+   */
+  private void runTransactionOperations(
+      final String method,
+      Map<String, Object> arguments,
+      final List<Map<String, Object>> operations,
+      final boolean batch,
+      final Result result) {
+    final Transaction transaction = getTransaction(arguments);
+    final FirebaseFirestore firestore = getFirestore(arguments);
+    transactionExecutor.execute(
+        (Integer) arguments.get("transactionId"),
+        new Runnable() {
+          @Override
+          public void run() {
+            final List<Object> results = new ArrayList<>();
+            try {
+              for (Map<String, Object> operation : operations) {
+                results.add(applyTransactionOperation(transaction, firestore, operation));
+              }
+            } catch (final Exception e) {
+              transactionExecutor.postToUiThread(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      result.error("Error performing " + method, e.getMessage(), null);
+                    }
+                  });
+              return;
+            }
+            transactionExecutor.postToUiThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    result.success(batch ? results : results.get(0));
+                  }
+                });
+          }
+        });
+  }
+
+  /**
+   * Applies one operation sent by the Dart side as {@code type}, {@code path} and {@code data} to
+   * the transaction. Returns the snapshot for reads and null for writes.
+   */
+  private Map<String, Object> applyTransactionOperation(
+      Transaction transaction, FirebaseFirestore firestore, Map<String, Object> operation)
+      throws FirebaseFirestoreException {
+    DocumentReference reference = firestore.document((String) operation.get("path"));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> data = (Map<String, Object>) operation.get("data");
+    String type = (String) operation.get("type");
+    switch (type) {
+      case "get":
+        return parseDocumentSnapshot(transaction.get(reference));
+      case "set":
+        transaction.set(reference, data);
+        return null;
+      case "update":
+        transaction.update(reference, data);
+        return null;
+      case "delete":
+        transaction.delete(reference);
+        return null;
+      default:
+        throw new IllegalArgumentException("Unknown transaction operation type: " + type);
+    }
+  }
+
   private Query getQuery(Map<String, Object> arguments) {
+    return getQuery(arguments, QueryKey.of(arguments));
+  }
+
+  /** Returns the query described by {@code arguments}, whose {@link QueryKey} is {@code key}. */
+  private Query getQuery(final Map<String, Object> arguments, String key) {
+    return queryCache.get(
+        (String) arguments.get("app"),
+        key,
+        new QueryCache.Builder() {
+          @Override
+          public Query build() {
+            long startNanos = System.nanoTime();
+            Query query = buildQuery(arguments);
+            stats.recordQueryBuild(System.nanoTime() - startNanos);
+            return query;
+          }
+        });
+  }
+
+  private Query buildQuery(Map<String, Object> arguments) {
     Query query = getReference(arguments);
     @SuppressWarnings("unchecked")
     Map<String, Object> parameters = (Map<String, Object>) arguments.get("parameters");
@@ -295,46 +712,239 @@ public class CloudFirestorePlugin implements MethodCallHandler {
     @Override
     public void onEvent(DocumentSnapshot documentSnapshot, FirebaseFirestoreException e) {
       if (e != null) {
-        // TODO: send error
-        System.out.println(e);
+        Map<String, Object> arguments = parseException(e);
+        arguments.put("handle", handle);
+        sendEncoded("DocumentSnapshotError", arguments, System.nanoTime());
         return;
       }
-      Map<String, Object> arguments = new HashMap<>();
-      Map<String, Object> metadata = new HashMap<>();
+      long startNanos = System.nanoTime();
+      Map<String, Object> arguments = parseDocumentSnapshot(documentSnapshot);
       arguments.put("handle", handle);
-      metadata.put("hasPendingWrites", documentSnapshot.getMetadata().hasPendingWrites());
-      metadata.put("isFromCache", documentSnapshot.getMetadata().isFromCache());
-      arguments.put("metadata", metadata);
-      if (documentSnapshot.exists()) {
-        arguments.put("data", documentSnapshot.getData());
-        arguments.put("path", documentSnapshot.getReference().getPath());
-      } else {
-        arguments.put("data", null);
-        arguments.put("path", documentSnapshot.getReference().getPath());
-      }
-      channel.invokeMethod("DocumentSnapshot", arguments);
+      sendEncoded("DocumentSnapshot", arguments, startNanos);
     }
   }
 
+  /**
+   * Listens to a query on behalf of every Dart handle that listens to an identical query, so that
+   * each snapshot is only serialized once and then sent to all of those handles.
+   *
+   * <p>Events and the list of handles are only used on the serializer thread, see {@link
+   * SnapshotSerializer}. The registration and its reference count are only used on the UI thread.
+   */
   private class EventObserver implements EventListener<QuerySnapshot> {
-    private int handle;
+    private final String key;
+    private final List<Integer> handles = new ArrayList<>();
+    private ListenerRegistration registration;
+    private int refCount = 1;
 
-    EventObserver(int handle) {
-      this.handle = handle;
+    // In delta mode only the first snapshot (and any snapshot requested through
+    // Query#resyncListener) carries the full result set, later ones only carry
+    // their documentChanges. Every message is numbered so that the Dart side can
+    // detect a gap and ask for a resync.
+    private final boolean deltaSnapshots;
+    private int sequence = 0;
+    // The last snapshot that was sent to the Dart side.
+    private QuerySnapshot lastSnapshot;
+
+    // With a minimum interval, snapshots that arrive sooner than that after the
+    // last delivery are held back, and only the latest one is sent when the
+    // interval has passed. If it replaced other held back snapshots, its
+    // documentChanges are recomputed against the last delivered snapshot.
+    private final long minIntervalMillis;
+    private long lastDeliveryMillis;
+    private QuerySnapshot pendingSnapshot;
+    private boolean pendingSnapshotMerged;
+
+    // Observers that pause in the background remove their registration while
+    // the activity is stopped and register again with the same query once it
+    // starts. The first snapshot after that is diffed against the last one
+    // delivered, so the Dart side receives a single catch-up snapshot.
+    private final Query query;
+    private final boolean pauseInBackground;
+    private long pausedAtMillis;
+    private boolean resuming = false;
+
+    // The fields the documents are restricted to, or null for all fields.
+    private final List<String> select;
+
+    private FirestoreStats.ListenerStats listenerStats;
+
+    EventObserver(
+        String key,
+        int handle,
+        Query query,
+        @Nullable List<String> select,
+        boolean deltaSnapshots,
+        long minIntervalMillis,
+        boolean pauseInBackground) {
+      this.key = key;
+      this.query = query;
+      this.select = select;
+      this.deltaSnapshots = deltaSnapshots;
+      this.minIntervalMillis = minIntervalMillis;
+      this.pauseInBackground = pauseInBackground;
+      handles.add(handle);
     }
 
     @Override
     public void onEvent(QuerySnapshot querySnapshot, FirebaseFirestoreException e) {
       if (e != null) {
-        // TODO: send error
-        System.out.println(e);
+        // The SDK sends no further events after an error, so identical queries must not join this
+        // observer anymore.
+        listenerStats.recordError();
+        pendingSnapshot = null;
+        serializer.postToUiThread(
+            new Runnable() {
+              @Override
+              public void run() {
+                if (sharedObservers.get(key) == EventObserver.this) sharedObservers.remove(key);
+              }
+            });
+        Map<String, Object> arguments = parseException(e);
+        arguments.put("handles", new ArrayList<>(handles));
+        sendEncoded("QuerySnapshotError", arguments, System.nanoTime());
         return;
       }
 
-      Map<String, Object> arguments = parseQuerySnapshot(querySnapshot);
-      arguments.put("handle", handle);
+      if (resuming) {
+        resuming = false;
+        if (lastSnapshot != null) {
+          long startNanos = System.nanoTime();
+          if (pendingSnapshot != null) listenerStats.recordDropped();
+          pendingSnapshot = null;
+          deliver(
+              querySnapshot, diffDocumentChanges(lastSnapshot, querySnapshot, select), startNanos);
+          return;
+        }
+      }
+      if (minIntervalMillis > 0 && lastSnapshot != null) {
+        long delayMillis = lastDeliveryMillis + minIntervalMillis - SystemClock.uptimeMillis();
+        if (pendingSnapshot != null) {
+          listenerStats.recordDropped();
+          pendingSnapshot = querySnapshot;
+          pendingSnapshotMerged = true;
+          return;
+        }
+        if (delayMillis > 0) {
+          pendingSnapshot = querySnapshot;
+          pendingSnapshotMerged = false;
+          serializer.executeDelayed(
+              new Runnable() {
+                @Override
+                public void run() {
+                  deliverPendingSnapshot();
+                }
+              },
+              delayMillis);
+          return;
+        }
+      }
+      long startNanos = System.nanoTime();
+      deliver(querySnapshot, parseDocumentChanges(querySnapshot, select), startNanos);
+    }
+
+    private void deliverPendingSnapshot() {
+      // Already replaced by a catch-up snapshot.
+      if (pendingSnapshot == null) return;
+      long startNanos = System.nanoTime();
+      QuerySnapshot querySnapshot = pendingSnapshot;
+      List<Map<String, Object>> documentChanges =
+          pendingSnapshotMerged
+              ? diffDocumentChanges(lastSnapshot, querySnapshot, select)
+              : parseDocumentChanges(querySnapshot, select);
+      pendingSnapshot = null;
+      deliver(querySnapshot, documentChanges, startNanos);
+    }
+
+    private void deliver(
+        QuerySnapshot querySnapshot, List<Map<String, Object>> documentChanges, long startNanos) {
+      lastSnapshot = querySnapshot;
+      lastDeliveryMillis = SystemClock.uptimeMillis();
+      Map<String, Object> arguments;
+      if (deltaSnapshots && sequence > 0) {
+        arguments = new HashMap<>();
+        arguments.put("isDelta", true);
+      } else {
+        arguments = parseDocuments(querySnapshot.getDocuments(), select);
+        if (deltaSnapshots) arguments.put("isDelta", false);
+      }
+      arguments.put("documentChanges", documentChanges);
+      if (deltaSnapshots) arguments.put("sequence", sequence++);
+      sendSnapshot(arguments, handles, startNanos);
+    }
 
-      channel.invokeMethod("QuerySnapshot", arguments);
+    /** Adds a handle that listens to the same query, and catches it up with the last snapshot. */
+    void addHandle(int handle) {
+      handles.add(handle);
+      // Otherwise the first event reaches the new handle anyway.
+      if (lastSnapshot != null) sendFullSnapshot(handle);
+    }
+
+    void removeHandle(int handle) {
+      handles.remove(Integer.valueOf(handle));
+    }
+
+    /** Sends the full result set to a single handle that missed a delta. */
+    void resync(int handle) {
+      if (lastSnapshot != null && handles.contains(handle)) sendFullSnapshot(handle);
+    }
+
+    /**
+     * Sends the last snapshot to a single handle. Its document changes describe every document as
+     * added, since the SDK's changes are relative to a snapshot the handle may not have received.
+     */
+    private void sendFullSnapshot(int handle) {
+      long startNanos = System.nanoTime();
+      Map<String, Object> arguments = parseDocuments(lastSnapshot.getDocuments(), select);
+      arguments.put("documentChanges", parseInitialDocumentChanges(lastSnapshot, select));
+      if (deltaSnapshots) {
+        // Messages to a single handle reuse the last sequence number so that the
+        // other handles of this observer do not see a gap.
+        arguments.put("isDelta", false);
+        arguments.put("sequence", sequence - 1);
+      }
+      sendSnapshot(arguments, Collections.singletonList(handle), startNanos);
+    }
+
+    private void sendSnapshot(Map<String, Object> arguments, List<Integer> to, long startNanos) {
+      arguments.put("handles", new ArrayList<>(to));
+      int bytes = sendEncoded("QuerySnapshot", arguments, startNanos);
+      listenerStats.recordDelivered(System.nanoTime() - startNanos, bytes);
+    }
+  }
+
+  /**
+   * Adds one operation sent by the Dart side as {@code type}, {@code path}, {@code data} and {@code
+   * options} to the batch.
+   */
+  static void addBatchOperation(
+      FirebaseFirestore firestore, WriteBatch batch, Map<String, Object> operation) {
+    DocumentReference reference = firestore.document((String) operation.get("path"));
+    String type = (String) operation.get("type");
+    switch (type) {
+      case "set":
+        {
+          @SuppressWarnings("unchecked")
+          Map<String, Object> options = (Map<String, Object>) operation.get("options");
+          if (options != null && (boolean) options.get("merge")) {
+            batch.set(reference, operation.get("data"), SetOptions.merge());
+          } else {
+            batch.set(reference, operation.get("data"));
+          }
+          break;
+        }
+      case "update":
+        {
+          @SuppressWarnings("unchecked")
+          Map<String, Object> data = (Map<String, Object>) operation.get("data");
+          batch.update(reference, data);
+          break;
+        }
+      case "delete":
+        batch.delete(reference);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown batch operation type: " + type);
     }
   }
 
@@ -356,7 +966,8 @@ public class CloudFirestorePlugin implements MethodCallHandler {
   }
 
   @Override
-  public void onMethodCall(MethodCall call, final Result result) {
+  public void onMethodCall(MethodCall call, Result methodResult) {
+    final Result result = stats.isEnabled() ? stats.wrap(call.method, methodResult) : methodResult;
     switch (call.method) {
       case "Firestore#runTransaction":
         {
@@ -441,119 +1052,25 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           break;
         }
       case "Transaction#get":
-        {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-              try {
-                DocumentSnapshot documentSnapshot =
-                    transaction.get(getDocumentReference(arguments));
-                final Map<String, Object> snapshotMap = new HashMap<>();
-                snapshotMap.put("path", documentSnapshot.getReference().getPath());
-                if (documentSnapshot.exists()) {
-                  snapshotMap.put("data", documentSnapshot.getData());
-                } else {
-                  snapshotMap.put("data", null);
-                }
-                Map<String, Object> metadata = new HashMap();
-                metadata.put("hasPendingWrites", documentSnapshot.getMetadata().hasPendingWrites());
-                metadata.put("isFromCache", documentSnapshot.getMetadata().isFromCache());
-                snapshotMap.put("metadata", metadata);
-                activity.runOnUiThread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        result.success(snapshotMap);
-                      }
-                    });
-              } catch (final FirebaseFirestoreException e) {
-                activity.runOnUiThread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        result.error("Error performing Transaction#get", e.getMessage(), null);
-                      }
-                    });
-              }
-              return null;
-            }
-          }.execute();
-          break;
-        }
       case "Transaction#update":
-        {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @SuppressWarnings("unchecked")
-            @Override
-            protected Void doInBackground(Void... voids) {
-              Map<String, Object> data = (Map<String, Object>) arguments.get("data");
-              try {
-                transaction.update(getDocumentReference(arguments), data);
-                activity.runOnUiThread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        result.success(null);
-                      }
-                    });
-              } catch (final IllegalStateException e) {
-                activity.runOnUiThread(
-                    new Runnable() {
-                      @Override
-                      public void run() {
-                        result.error("Error performing Transaction#update", e.getMessage(), null);
-                      }
-                    });
-              }
-              return null;
-            }
-          }.execute();
-          break;
-        }
       case "Transaction#set":
+      case "Transaction#delete":
         {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @SuppressWarnings("unchecked")
-            @Override
-            protected Void doInBackground(Void... voids) {
-              Map<String, Object> data = (Map<String, Object>) arguments.get("data");
-              transaction.set(getDocumentReference(arguments), data);
-              activity.runOnUiThread(
-                  new Runnable() {
-                    @Override
-                    public void run() {
-                      result.success(null);
-                    }
-                  });
-              return null;
-            }
-          }.execute();
+          Map<String, Object> arguments = call.arguments();
+          // The arguments of a single operation describe the operation itself.
+          Map<String, Object> operation = new HashMap<>(arguments);
+          operation.put("type", call.method.substring("Transaction#".length()));
+          runTransactionOperations(
+              call.method, arguments, Collections.singletonList(operation), false, result);
           break;
         }
-      case "Transaction#delete":
+      case "Transaction#batch":
         {
-          final Map<String, Object> arguments = call.arguments();
-          final Transaction transaction = getTransaction(arguments);
-          new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... voids) {
-              transaction.delete(getDocumentReference(arguments));
-              activity.runOnUiThread(
-                  new Runnable() {
-                    @Override
-                    public void run() {
-                      result.success(null);
-                    }
-                  });
-              return null;
-            }
-          }.execute();
+          Map<String, Object> arguments = call.arguments();
+          @SuppressWarnings("unchecked")
+          List<Map<String, Object>> operations =
+              (List<Map<String, Object>>) arguments.get("operations");
+          runTransactionOperations(call.method, arguments, operations, true, result);
           break;
         }
       case "WriteBatch#create":
@@ -613,13 +1130,135 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           addDefaultListeners("commit", task, result);
           break;
         }
+      case "WriteBatch#commitOps":
+        {
+          Map<String, Object> arguments = call.arguments();
+          @SuppressWarnings("unchecked")
+          List<Map<String, Object>> operations =
+              (List<Map<String, Object>>) arguments.get("operations");
+          FirebaseFirestore firestore = getFirestore(arguments);
+          WriteBatch batch = firestore.batch();
+          try {
+            for (Map<String, Object> operation : operations) {
+              addBatchOperation(firestore, batch, operation);
+            }
+          } catch (RuntimeException e) {
+            // E.g. an operation with an unknown type or malformed data.
+            result.error("Error performing commit", e.getMessage(), null);
+            break;
+          }
+          addDefaultListeners("commit", batch.commit(), result);
+          break;
+        }
+      case "Firestore#bulkWrite":
+        {
+          Map<String, Object> arguments = call.arguments();
+          final int handle = nextBulkWriterHandle++;
+          BulkWriter writer =
+              new BulkWriter(
+                  getFirestore(arguments),
+                  (Integer) arguments.get("maxConcurrentBatches"),
+                  (Integer) arguments.get("maxRetries"),
+                  ((Number) arguments.get("initialBackoffMillis")).longValue(),
+                  new BulkWriter.ProgressListener() {
+                    @Override
+                    public void onProgress(Map<String, Object> progress) {
+                      progress.put("handle", handle);
+                      channel.invokeMethod("BulkWriteProgress", progress);
+                    }
+                  });
+          bulkWriters.put(handle, writer);
+          result.success(handle);
+          break;
+        }
+      case "BulkWriter#add":
+        {
+          Map<String, Object> arguments = call.arguments();
+          int handle = (Integer) arguments.get("handle");
+          @SuppressWarnings("unchecked")
+          List<Map<String, Object>> operations =
+              (List<Map<String, Object>>) arguments.get("operations");
+          int startIndex = (Integer) arguments.get("startIndex");
+          bulkWriters.get(handle).add(operations, startIndex, result);
+          break;
+        }
+      case "BulkWriter#close":
+        {
+          Map<String, Object> arguments = call.arguments();
+          int handle = (Integer) arguments.get("handle");
+          BulkWriter writer = bulkWriters.get(handle);
+          bulkWriters.remove(handle);
+          writer.close(result);
+          break;
+        }
+      case "BulkWriter#abort":
+        {
+          Map<String, Object> arguments = call.arguments();
+          int handle = (Integer) arguments.get("handle");
+          BulkWriter writer = bulkWriters.get(handle);
+          bulkWriters.remove(handle);
+          if (writer != null) writer.abort();
+          result.success(null);
+          break;
+        }
       case "Query#addSnapshotListener":
         {
           Map<String, Object> arguments = call.arguments();
-          int handle = nextListenerHandle++;
-          EventObserver observer = new EventObserver(handle);
-          observers.put(handle, observer);
-          listenerRegistrations.put(handle, getQuery(arguments).addSnapshotListener(observer));
+          Integer maxEventsPerSecond = (Integer) arguments.get("maxEventsPerSecond");
+          if (maxEventsPerSecond != null && (maxEventsPerSecond < 1 || maxEventsPerSecond > 1000)) {
+            // The throttle works in whole milliseconds.
+            result.error(
+                "invalid_argument",
+                "maxEventsPerSecond must be between 1 and 1000, was " + maxEventsPerSecond,
+                null);
+            break;
+          }
+          long minIntervalMillis = maxEventsPerSecond != null ? 1000 / maxEventsPerSecond : 0;
+          final int handle = nextListenerHandle++;
+          boolean deltaSnapshots = Boolean.TRUE.equals(arguments.get("deltaSnapshots"));
+          boolean pauseInBackground = Boolean.TRUE.equals(arguments.get("pauseInBackground"));
+          String queryKey = QueryKey.of(arguments);
+          @SuppressWarnings("unchecked")
+          List<String> select = (List<String>) arguments.get("select");
+          String key =
+              queryKey
+                  + (deltaSnapshots ? "|delta" : "")
+                  + (pauseInBackground ? "|pause" : "")
+                  + (select != null ? "|select=" + select : "")
+                  + "|interval="
+                  + minIntervalMillis;
+          final EventObserver sharedObserver = sharedObservers.get(key);
+          if (sharedObserver != null) {
+            sharedObserver.refCount++;
+            observers.put(handle, sharedObserver);
+            serializer.execute(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    sharedObserver.addHandle(handle);
+                  }
+                });
+          } else {
+            EventObserver observer =
+                new EventObserver(
+                    key,
+                    handle,
+                    getQuery(arguments, queryKey),
+                    select,
+                    deltaSnapshots,
+                    minIntervalMillis,
+                    pauseInBackground);
+            observer.listenerStats = stats.addListener(handle, (String) arguments.get("path"));
+            if (!pauseInBackground || !activityStopped) {
+              observer.registration = observer.query.addSnapshotListener(serializer, observer);
+            } else {
+              // Registered once the activity starts again.
+              observer.pausedAtMillis = SystemClock.uptimeMillis();
+              pausedListeners++;
+            }
+            observers.put(handle, observer);
+            sharedObservers.put(key, observer);
+          }
           result.success(handle);
           break;
         }
@@ -630,17 +1269,58 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           DocumentObserver observer = new DocumentObserver(handle);
           documentObservers.put(handle, observer);
           listenerRegistrations.put(
-              handle, getDocumentReference(arguments).addSnapshotListener(observer));
+              handle, getDocumentReference(arguments).addSnapshotListener(serializer, observer));
           result.success(handle);
           break;
         }
       case "Query#removeListener":
         {
           Map<String, Object> arguments = call.arguments();
-          int handle = (Integer) arguments.get("handle");
-          listenerRegistrations.get(handle).remove();
-          listenerRegistrations.remove(handle);
-          observers.remove(handle);
+          final int handle = (Integer) arguments.get("handle");
+          final EventObserver observer = observers.get(handle);
+          if (observer != null) {
+            observers.remove(handle);
+            if (--observer.refCount == 0) {
+              if (observer.registration != null) {
+                observer.registration.remove();
+              } else {
+                pausedListeners--;
+              }
+              if (sharedObservers.get(observer.key) == observer) {
+                sharedObservers.remove(observer.key);
+              }
+              stats.removeListener(observer.listenerStats);
+            }
+            serializer.execute(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    observer.removeHandle(handle);
+                  }
+                });
+          } else {
+            listenerRegistrations.get(handle).remove();
+            listenerRegistrations.remove(handle);
+            documentObservers.remove(handle);
+          }
+          result.success(null);
+          break;
+        }
+      case "Query#resyncListener":
+        {
+          Map<String, Object> arguments = call.arguments();
+          final int handle = (Integer) arguments.get("handle");
+          final EventObserver observer = observers.get(handle);
+          if (observer != null) {
+            // The observer's state is owned by the serializer thread.
+            serializer.execute(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    observer.resync(handle);
+                  }
+                });
+          }
           result.success(null);
           break;
         }
@@ -648,13 +1328,110 @@ public class CloudFirestorePlugin implements MethodCallHandler {
         {
           Map<String, Object> arguments = call.arguments();
           Query query = getQuery(arguments);
+          final Source source = getSource(arguments);
+          @SuppressWarnings("unchecked")
+          final List<String> select = (List<String>) arguments.get("select");
+          Integer depth = (Integer) arguments.get("resolveReferencesDepth");
+          final int resolveReferencesDepth = depth != null ? depth : 0;
+          Task<QuerySnapshot> task = query.get(source);
+          task.addOnSuccessListener(
+                  serializer,
+                  new OnSuccessListener<QuerySnapshot>() {
+                    @Override
+                    public void onSuccess(final QuerySnapshot querySnapshot) {
+                      if (resolveReferencesDepth == 0) {
+                        long startNanos = System.nanoTime();
+                        successEncoded(
+                            result, parseQuerySnapshot(querySnapshot, select), startNanos);
+                        return;
+                      }
+                      ReferenceResolver.resolve(
+                          querySnapshot.getDocuments(),
+                          resolveReferencesDepth,
+                          source,
+                          serializer,
+                          new ReferenceResolver.Callback() {
+                            @Override
+                            public void onResolved(Map<String, DocumentSnapshot> resolved) {
+                              long startNanos = System.nanoTime();
+                              Map<String, Object> data =
+                                  parseQuerySnapshot(querySnapshot, select);
+                              Map<String, Object> resolvedReferences = new HashMap<>();
+                              for (Map.Entry<String, DocumentSnapshot> entry :
+                                  resolved.entrySet()) {
+                                resolvedReferences.put(
+                                    entry.getKey(), parseDocumentSnapshot(entry.getValue()));
+                              }
+                              data.put("resolvedReferences", resolvedReferences);
+                              successEncoded(result, data, startNanos);
+                            }
+                          });
+                    }
+                  })
+              .addOnFailureListener(
+                  new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                      result.error("Error performing getDocuments", e.getMessage(), null);
+                    }
+                  });
+          break;
+        }
+      case "Query#aggregate":
+        {
+          final Map<String, Object> arguments = call.arguments();
+          Query query = getQuery(arguments);
           Source source = getSource(arguments);
           Task<QuerySnapshot> task = query.get(source);
           task.addOnSuccessListener(
+                  serializer,
                   new OnSuccessListener<QuerySnapshot>() {
+                    @SuppressWarnings("unchecked")
                     @Override
                     public void onSuccess(QuerySnapshot querySnapshot) {
-                      result.success(parseQuerySnapshot(querySnapshot));
+                      final Map<String, Object> aggregates =
+                          QueryAggregator.aggregate(
+                              querySnapshot,
+                              (List<String>) arguments.get("sum"),
+                              (List<String>) arguments.get("min"),
+                              (List<String>) arguments.get("max"),
+                              (List<String>) arguments.get("average"));
+                      serializer.postToUiThread(
+                          new Runnable() {
+                            @Override
+                            public void run() {
+                              result.success(aggregates);
+                            }
+                          });
+                    }
+                  })
+              .addOnFailureListener(
+                  new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                      result.error("Error performing aggregate", e.getMessage(), null);
+                    }
+                  });
+          break;
+        }
+      case "Query#getDocumentsChunked":
+        {
+          Map<String, Object> arguments = call.arguments();
+          Query query = getQuery(arguments);
+          Source source = getSource(arguments);
+          Task<QuerySnapshot> task = query.get(source);
+          task.addOnSuccessListener(
+                  new OnSuccessListener<QuerySnapshot>() {
+                    @Override
+                    public void onSuccess(QuerySnapshot querySnapshot) {
+                      // Nothing is converted yet; chunks are converted as they are fetched.
+                      int handle = nextChunkedQueryHandle++;
+                      int size = querySnapshot.size();
+                      if (size > 0) chunkedQueries.put(handle, querySnapshot);
+                      Map<String, Object> info = new HashMap<>();
+                      info.put("handle", handle);
+                      info.put("size", size);
+                      result.success(info);
                     }
                   })
               .addOnFailureListener(
@@ -666,6 +1443,94 @@ public class CloudFirestorePlugin implements MethodCallHandler {
                   });
           break;
         }
+      case "Query#getDocumentChunk":
+        {
+          Map<String, Object> arguments = call.arguments();
+          int handle = (Integer) arguments.get("handle");
+          final int offset = (Integer) arguments.get("offset");
+          final QuerySnapshot querySnapshot = chunkedQueries.get(handle);
+          if (querySnapshot == null) {
+            result.error("Error performing getDocuments", "Unknown handle " + handle, null);
+            break;
+          }
+          final int end =
+              Math.min(offset + (Integer) arguments.get("chunkSize"), querySnapshot.size());
+          if (end == querySnapshot.size()) chunkedQueries.remove(handle);
+          serializer.execute(
+              new Runnable() {
+                @Override
+                public void run() {
+                  long startNanos = System.nanoTime();
+                  List<DocumentSnapshot> documents =
+                      querySnapshot.getDocuments().subList(offset, end);
+                  successEncoded(result, parseDocuments(documents, null), startNanos);
+                }
+              });
+          break;
+        }
+      case "Query#releaseDocumentChunks":
+        {
+          Map<String, Object> arguments = call.arguments();
+          chunkedQueries.remove((Integer) arguments.get("handle"));
+          result.success(null);
+          break;
+        }
+      case "Query#createCursor":
+        {
+          Map<String, Object> arguments = call.arguments();
+          @SuppressWarnings("unchecked")
+          Map<String, Object> parameters = (Map<String, Object>) arguments.get("parameters");
+          Number limit = (Number) parameters.get("limit");
+          int handle = nextCursorHandle++;
+          cursors.put(
+              handle,
+              new QueryCursor(
+                  getQuery(arguments),
+                  limit != null ? limit.intValue() : null,
+                  (Integer) arguments.get("pageSize"),
+                  getSource(arguments)));
+          result.success(handle);
+          break;
+        }
+      case "QueryCursor#next":
+        {
+          Map<String, Object> arguments = call.arguments();
+          int handle = (Integer) arguments.get("handle");
+          QueryCursor cursor = cursors.get(handle);
+          if (cursor == null) {
+            result.error("Error performing getDocuments", "Unknown handle " + handle, null);
+            break;
+          }
+          cursor.next(
+              new QueryCursor.Callback() {
+                @Override
+                public void onPage(final List<DocumentSnapshot> documents, final boolean hasMore) {
+                  serializer.execute(
+                      new Runnable() {
+                        @Override
+                        public void run() {
+                          long startNanos = System.nanoTime();
+                          Map<String, Object> page = parseDocuments(documents, null);
+                          page.put("hasMore", hasMore);
+                          successEncoded(result, page, startNanos);
+                        }
+                      });
+                }
+
+                @Override
+                public void onError(Exception e) {
+                  result.error("Error performing getDocuments", e.getMessage(), null);
+                }
+              });
+          break;
+        }
+      case "QueryCursor#close":
+        {
+          Map<String, Object> arguments = call.arguments();
+          cursors.remove((Integer) arguments.get("handle"));
+          result.success(null);
+          break;
+        }
       case "DocumentReference#setData":
         {
           Map<String, Object> arguments = call.arguments();
@@ -698,24 +1563,17 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           Map<String, Object> arguments = call.arguments();
           DocumentReference documentReference = getDocumentReference(arguments);
           Source source = getSource(arguments);
+          @SuppressWarnings("unchecked")
+          final List<String> select = (List<String>) arguments.get("select");
           Task<DocumentSnapshot> task = documentReference.get(source);
           task.addOnSuccessListener(
+                  serializer,
                   new OnSuccessListener<DocumentSnapshot>() {
                     @Override
                     public void onSuccess(DocumentSnapshot documentSnapshot) {
-                      Map<String, Object> snapshotMap = new HashMap<>();
-                      Map<String, Object> metadata = new HashMap<>();
-                      metadata.put(
-                          "hasPendingWrites", documentSnapshot.getMetadata().hasPendingWrites());
-                      metadata.put("isFromCache", documentSnapshot.getMetadata().isFromCache());
-                      snapshotMap.put("metadata", metadata);
-                      snapshotMap.put("path", documentSnapshot.getReference().getPath());
-                      if (documentSnapshot.exists()) {
-                        snapshotMap.put("data", documentSnapshot.getData());
-                      } else {
-                        snapshotMap.put("data", null);
-                      }
-                      result.success(snapshotMap);
+                      long startNanos = System.nanoTime();
+                      successEncoded(
+                          result, parseDocumentSnapshot(documentSnapshot, select), startNanos);
                     }
                   })
               .addOnFailureListener(
@@ -727,6 +1585,43 @@ public class CloudFirestorePlugin implements MethodCallHandler {
                   });
           break;
         }
+      case "Firestore#getAll":
+        {
+          Map<String, Object> arguments = call.arguments();
+          FirebaseFirestore firestore = getFirestore(arguments);
+          Source source = getSource(arguments);
+          @SuppressWarnings("unchecked")
+          final List<String> paths = (List<String>) arguments.get("paths");
+          final List<Task<DocumentSnapshot>> tasks = new ArrayList<>();
+          for (String path : paths) {
+            try {
+              tasks.add(firestore.document(path).get(source));
+            } catch (IllegalArgumentException e) {
+              tasks.add(Tasks.<DocumentSnapshot>forException(e));
+            }
+          }
+          Tasks.whenAllComplete(tasks)
+              .addOnCompleteListener(
+                  serializer,
+                  new OnCompleteListener<List<Task<?>>>() {
+                    @Override
+                    public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                      long startNanos = System.nanoTime();
+                      List<Map<String, Object>> results = new ArrayList<>();
+                      for (int i = 0; i < tasks.size(); i++) {
+                        Task<DocumentSnapshot> documentTask = tasks.get(i);
+                        if (documentTask.isSuccessful()) {
+                          results.add(parseDocumentSnapshot(documentTask.getResult()));
+                        } else {
+                          results.add(
+                              parseDocumentError(paths.get(i), documentTask.getException()));
+                        }
+                      }
+                      successEncoded(result, results, startNanos);
+                    }
+                  });
+          break;
+        }
       case "DocumentReference#delete":
         {
           Map<String, Object> arguments = call.arguments();
@@ -735,6 +1630,50 @@ public class CloudFirestorePlugin implements MethodCallHandler {
           addDefaultListeners("delete", task, result);
           break;
         }
+      case "Firestore#setStatsEnabled":
+        {
+          stats.setEnabled((Boolean) call.argument("enabled"));
+          result.success(null);
+          break;
+        }
+      case "Firestore#getStats":
+        {
+          Map<String, Object> allStats = stats.getStats();
+          allStats.put("serialization", serializer.getStats());
+          allStats.put("queryCache", getQueryCacheStats());
+          allStats.put("lifecycle", getLifecycleStats());
+          allStats.put("prewarm", prewarmer.getStats());
+          result.success(allStats);
+          break;
+        }
+      case "Firestore#getSerializationStats":
+        {
+          result.success(serializer.getStats());
+          break;
+        }
+      case "Firestore#setPrewarmQueries":
+        {
+          @SuppressWarnings("unchecked")
+          List<Object> queries = (List<Object>) call.argument("queries");
+          prewarmer.saveQueries(queries);
+          result.success(null);
+          break;
+        }
+      case "Firestore#getPrewarmStats":
+        {
+          result.success(prewarmer.getStats());
+          break;
+        }
+      case "Firestore#getLifecycleStats":
+        {
+          result.success(getLifecycleStats());
+          break;
+        }
+      case "Firestore#getQueryCacheStats":
+        {
+          result.success(getQueryCacheStats());
+          break;
+        }
       case "Firestore#enablePersistence":
         {
           Map<String, Object> arguments = call.arguments();
@@ -749,31 +1688,27 @@ public class CloudFirestorePlugin implements MethodCallHandler {
       case "Firestore#settings":
         {
           final Map<String, Object> arguments = call.arguments();
-          final FirebaseFirestoreSettings.Builder builder = new FirebaseFirestoreSettings.Builder();
-
-          if (arguments.get("persistenceEnabled") != null) {
-            builder.setPersistenceEnabled((boolean) arguments.get("persistenceEnabled"));
-          }
-
-          if (arguments.get("host") != null) {
-            builder.setHost((String) arguments.get("host"));
-          }
-
-          if (arguments.get("sslEnabled") != null) {
-            builder.setSslEnabled((boolean) arguments.get("sslEnabled"));
-          }
-
-          if (arguments.get("timestampsInSnapshotsEnabled") != null) {
-            builder.setTimestampsInSnapshotsEnabled(
-                (boolean) arguments.get("timestampsInSnapshotsEnabled"));
+          prewarmer.saveSettings(arguments);
+          if (prewarmer.wereApplied(arguments)) {
+            result.success(null);
+            break;
           }
-
-          if (arguments.get("cacheSizeBytes") != null) {
-            builder.setCacheSizeBytes(((Integer) arguments.get("cacheSizeBytes")).longValue());
+          String app = (String) arguments.get("app");
+          try {
+            applySettings(arguments);
+          } catch (IllegalStateException e) {
+            if (!prewarmer.appliedSettingsOf(app)) throw e;
+            // The instance was started by the prewarm with the settings of the previous start.
+            // The new settings are saved, so the next prewarm applies them.
+            result.error(
+                "settings_prewarmed",
+                "Firestore of app "
+                    + app
+                    + " was started with the settings of the previous start to prewarm queries."
+                    + " The new settings apply from the next start.",
+                null);
+            break;
           }
-
-          FirebaseFirestoreSettings settings = builder.build();
-          getFirestore(arguments).setFirestoreSettings(settings);
           result.success(null);
           break;
         }
@@ -784,6 +1719,54 @@ public class CloudFirestorePlugin implements MethodCallHandler {
         }
     }
   }
+
+  private Map<String, Object> getQueryCacheStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("queryCacheHits", queryCache.hitCount());
+    stats.put("queryCacheMisses", queryCache.missCount());
+    stats.put("queryCacheSize", queryCache.size());
+    stats.put("firestoreCacheHits", firestoreCache.hitCount());
+    stats.put("firestoreCacheMisses", firestoreCache.missCount());
+    return stats;
+  }
+
+  private Map<String, Object> getLifecycleStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("pausedListeners", pausedListeners);
+    stats.put("listenerPauses", listenerPauses);
+    stats.put("pausedListenerMillis", pausedListenerMillis);
+    return stats;
+  }
+
+  private void applySettings(Map<String, Object> arguments) {
+    final FirebaseFirestoreSettings.Builder builder = new FirebaseFirestoreSettings.Builder();
+
+    if (arguments.get("persistenceEnabled") != null) {
+      builder.setPersistenceEnabled((boolean) arguments.get("persistenceEnabled"));
+    }
+
+    if (arguments.get("host") != null) {
+      builder.setHost((String) arguments.get("host"));
+    }
+
+    if (arguments.get("sslEnabled") != null) {
+      builder.setSslEnabled((boolean) arguments.get("sslEnabled"));
+    }
+
+    if (arguments.get("timestampsInSnapshotsEnabled") != null) {
+      builder.setTimestampsInSnapshotsEnabled(
+          (boolean) arguments.get("timestampsInSnapshotsEnabled"));
+    }
+
+    if (arguments.get("cacheSizeBytes") != null) {
+      builder.setCacheSizeBytes(((Integer) arguments.get("cacheSizeBytes")).longValue());
+    }
+
+    FirebaseFirestoreSettings settings = builder.build();
+    getFirestore(arguments).setFirestoreSettings(settings);
+    // Don't reuse queries built before the settings were applied.
+    queryCache.evictApp((String) arguments.get("app"));
+  }
 }
 
 final class FirestoreMessageCodec extends StandardMessageCodec {
@@ -800,10 +1783,63 @@ final class FirestoreMessageCodec extends StandardMessageCodec {
   private static final byte TIMESTAMP = (byte) 136;
   private static final byte INCREMENT_DOUBLE = (byte) 137;
   private static final byte INCREMENT_INTEGER = (byte) 138;
+  private static final byte SNAPSHOT_METADATA = (byte) 139;
+  private static final byte STRING_DEFINITION = (byte) 140;
+  private static final byte STRING_REFERENCE = (byte) 141;
+  private static final byte DOCUMENT_PATH = (byte) 142;
+  private static final byte TABLE_DOCUMENT_REFERENCE = (byte) 143;
+
+  // Type codes of StandardMessageCodec, used to write values it would otherwise write itself.
+  private static final byte STRING = 7;
+  private static final byte LIST = 12;
+
+  private static final int FLAG_HAS_PENDING_WRITES = 1;
+  private static final int FLAG_IS_FROM_CACHE = 1 << 1;
+
+  // Shorter strings are not smaller as a reference than written out.
+  private static final int MIN_TABLE_STRING_LENGTH = 4;
+  private static final int MAX_TABLE_SIZE = 1 << 16;
+
+  /**
+   * Output stream of a message that writes repeated strings only once.
+   *
+   * <p>The first occurrence of a string is written as a {@code STRING_DEFINITION}, which adds it
+   * to the message's string table on both sides, and later occurrences as a {@code
+   * STRING_REFERENCE} to its index in that table. Document paths are split into their parent
+   * path, which is shared by all documents of a collection, and the document ID.
+   */
+  private static final class StringTableOutputStream extends ByteArrayOutputStream {
+    final Map<String, Integer> strings = new HashMap<>();
+  }
+
+  /**
+   * Encodes a single value the same way {@link #encodeMessage} would, but with a string table.
+   * Only the Dart {@code FirestoreMessageCodec} can decode the result.
+   */
+  byte[] encodeToByteArray(Object value) {
+    final ByteArrayOutputStream stream = new StringTableOutputStream();
+    writeValue(stream, value);
+    return stream.toByteArray();
+  }
+
+  /**
+   * Encodes a method call the same way {@link StandardMethodCodec#encodeMethodCall} would, but
+   * with a string table for the arguments.
+   */
+  ByteBuffer encodeMethodCall(MethodCall call) {
+    final ByteArrayOutputStream stream = new StringTableOutputStream();
+    super.writeValue(stream, call.method);
+    writeValue(stream, call.arguments);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(stream.size());
+    buffer.put(stream.toByteArray());
+    return buffer;
+  }
 
   @Override
   protected void writeValue(ByteArrayOutputStream stream, Object value) {
-    if (value instanceof Date) {
+    if (value instanceof String && stream instanceof StringTableOutputStream) {
+      writeTableString((StringTableOutputStream) stream, (String) value);
+    } else if (value instanceof Date) {
       stream.write(DATE_TIME);
       writeLong(stream, ((Date) value).getTime());
     } else if (value instanceof Timestamp) {
@@ -815,6 +1851,10 @@ final class FirestoreMessageCodec extends StandardMessageCodec {
       writeAlignment(stream, 8);
       writeDouble(stream, ((GeoPoint) value).getLatitude());
       writeDouble(stream, ((GeoPoint) value).getLongitude());
+    } else if (value instanceof DocumentReference && stream instanceof StringTableOutputStream) {
+      stream.write(TABLE_DOCUMENT_REFERENCE);
+      writeValue(stream, ((DocumentReference) value).getFirestore().getApp().getName());
+      writeDocumentPath(stream, ((DocumentReference) value).getPath());
     } else if (value instanceof DocumentReference) {
       stream.write(DOCUMENT_REFERENCE);
       writeBytes(
@@ -823,11 +1863,62 @@ final class FirestoreMessageCodec extends StandardMessageCodec {
     } else if (value instanceof Blob) {
       stream.write(BLOB);
       writeBytes(stream, ((Blob) value).toBytes());
+    } else if (value instanceof SnapshotMetadata) {
+      // Decoded by Dart as a {hasPendingWrites, isFromCache} map.
+      SnapshotMetadata metadata = (SnapshotMetadata) value;
+      stream.write(SNAPSHOT_METADATA);
+      stream.write(
+          (metadata.hasPendingWrites() ? FLAG_HAS_PENDING_WRITES : 0)
+              | (metadata.isFromCache() ? FLAG_IS_FROM_CACHE : 0));
+    } else if (value instanceof DocumentColumn) {
+      DocumentColumn column = (DocumentColumn) value;
+      stream.write(LIST);
+      writeSize(stream, column.documents.size());
+      for (DocumentSnapshot document : column.documents) {
+        switch (column.field) {
+          case PATH:
+            writeDocumentPath(stream, document.getReference().getPath());
+            break;
+          case DATA:
+            writeValue(stream, FieldProjection.getData(document, column.select));
+            break;
+          case METADATA:
+            writeValue(stream, document.getMetadata());
+            break;
+        }
+      }
     } else {
       super.writeValue(stream, value);
     }
   }
 
+  private void writeTableString(StringTableOutputStream stream, String value) {
+    Integer index = stream.strings.get(value);
+    if (index != null) {
+      stream.write(STRING_REFERENCE);
+      writeSize(stream, index);
+      return;
+    }
+    if (value.length() >= MIN_TABLE_STRING_LENGTH && stream.strings.size() < MAX_TABLE_SIZE) {
+      stream.strings.put(value, stream.strings.size());
+      stream.write(STRING_DEFINITION);
+    } else {
+      stream.write(STRING);
+    }
+    writeBytes(stream, value.getBytes(UTF8));
+  }
+
+  private void writeDocumentPath(ByteArrayOutputStream stream, String path) {
+    int separator = path.lastIndexOf('/');
+    if (!(stream instanceof StringTableOutputStream) || separator < 0) {
+      writeValue(stream, path);
+      return;
+    }
+    stream.write(DOCUMENT_PATH);
+    writeValue(stream, path.substring(0, separator));
+    writeBytes(stream, path.substring(separator + 1).getBytes(UTF8));
+  }
+
   @Override
   protected Object readValueOfType(byte type, ByteBuffer buffer) {
     switch (type) {
@@ -0,0 +1,34 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.DocumentSnapshot;
+import java.util.List;
+
+/**
+ * One field of each document in a list, e.g. the paths of all documents of a query snapshot.
+ *
+ * <p>{@link FirestoreMessageCodec} writes a column as a list of the field values, read straight
+ * from the snapshots, so no intermediate list has to be built for it.
+ */
+final class DocumentColumn {
+  enum Field {
+    PATH,
+    DATA,
+    METADATA
+  }
+
+  final List<DocumentSnapshot> documents;
+  final Field field;
+  // For the DATA field, the fields each document is restricted to, or null for all fields.
+  final List<String> select;
+
+  DocumentColumn(List<DocumentSnapshot> documents, Field field, @Nullable List<String> select) {
+    this.documents = documents;
+    this.field = field;
+    this.select = select;
+  }
+}
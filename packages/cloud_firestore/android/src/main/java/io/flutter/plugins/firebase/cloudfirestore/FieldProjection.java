@@ -0,0 +1,48 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import androidx.annotation.Nullable;
+import com.google.firebase.firestore.DocumentSnapshot;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Restricts the data of documents to a list of fields before they are sent to Dart.
+ *
+ * <p>Fields are dot-separated paths like {@code address.city}. Nested fields keep their nesting,
+ * so {@code address.city} is sent as {@code {address: {city: ...}}}. Fields a document doesn't
+ * contain are left out.
+ */
+final class FieldProjection {
+
+  /** Returns the data of {@code document} restricted to {@code select}, or all of it if null. */
+  static Map<String, Object> getData(DocumentSnapshot document, @Nullable List<String> select) {
+    if (select == null || !document.exists()) return document.getData();
+    Map<String, Object> data = new HashMap<>();
+    for (String field : select) {
+      if (document.contains(field)) put(data, field.split("\\."), document.get(field));
+    }
+    return data;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void put(Map<String, Object> data, String[] path, Object value) {
+    Map<String, Object> map = data;
+    for (int i = 0; i < path.length - 1; i++) {
+      Object child = map.get(path[i]);
+      if (!(child instanceof Map)) {
+        child = new HashMap<String, Object>();
+        map.put(path[i], child);
+      }
+      map = (Map<String, Object>) child;
+    }
+    map.put(path[path.length - 1], value);
+  }
+
+  // Should never be instantiated.
+  private FieldProjection() {}
+}
@@ -0,0 +1,267 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import androidx.annotation.Nullable;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional instrumentation of the plugin: latency histograms of method calls and query listeners,
+ * the sizes of encoded payloads, and how many snapshots each listener delivered or dropped.
+ *
+ * <p>Nothing is recorded unless the stats are enabled. May be used from any thread.
+ */
+final class FirestoreStats {
+  /** Upper bounds of the histogram buckets in milliseconds. The last bucket has no bound. */
+  private static final long[] BUCKET_BOUNDS_MILLIS = {1, 2, 4, 8, 16, 32, 64, 128, 256, 512, 1024};
+
+  private static final class Histogram {
+    final long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+    long count = 0;
+    long totalNanos = 0;
+    long maxNanos = 0;
+
+    void record(long nanos) {
+      long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+      int bucket = 0;
+      while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket]++;
+      count++;
+      totalNanos += nanos;
+      if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    void addTo(Map<String, Object> stats) {
+      List<Long> bucketList = new ArrayList<>();
+      for (long bucket : buckets) {
+        bucketList.add(bucket);
+      }
+      stats.put("count", count);
+      stats.put("totalMicros", TimeUnit.NANOSECONDS.toMicros(totalNanos));
+      stats.put("maxMicros", TimeUnit.NANOSECONDS.toMicros(maxNanos));
+      stats.put("histogram", bucketList);
+    }
+  }
+
+  private static final class PayloadSizes {
+    long count = 0;
+    long totalBytes = 0;
+    long maxBytes = 0;
+
+    void record(int bytes) {
+      count++;
+      totalBytes += bytes;
+      if (bytes > maxBytes) maxBytes = bytes;
+    }
+
+    void addTo(Map<String, Object> stats) {
+      stats.put("payloads", count);
+      stats.put("totalPayloadBytes", totalBytes);
+      stats.put("maxPayloadBytes", maxBytes);
+    }
+  }
+
+  private static final class MethodStats {
+    final Histogram latency = new Histogram();
+    final PayloadSizes payloads = new PayloadSizes();
+    long errors = 0;
+  }
+
+  /** The stats of one query listener, which may be shared by several Dart handles. */
+  final class ListenerStats {
+    private final int id;
+    private final String path;
+    private Histogram latency = new Histogram();
+    private PayloadSizes payloads = new PayloadSizes();
+    private long delivered = 0;
+    private long dropped = 0;
+    private long errors = 0;
+
+    private ListenerStats(int id, String path) {
+      this.id = id;
+      this.path = path;
+    }
+
+    private void clear() {
+      latency = new Histogram();
+      payloads = new PayloadSizes();
+      delivered = 0;
+      dropped = 0;
+      errors = 0;
+    }
+
+    /** Records a snapshot message that took {@code nanos} to build and encode. */
+    void recordDelivered(long nanos, int bytes) {
+      if (!enabled) return;
+      synchronized (FirestoreStats.this) {
+        delivered++;
+        latency.record(nanos);
+        payloads.record(bytes);
+      }
+    }
+
+    /** Records a snapshot that was replaced by a later one before it was delivered. */
+    void recordDropped() {
+      if (!enabled) return;
+      synchronized (FirestoreStats.this) {
+        dropped++;
+      }
+    }
+
+    void recordError() {
+      if (!enabled) return;
+      synchronized (FirestoreStats.this) {
+        errors++;
+      }
+    }
+  }
+
+  private volatile boolean enabled = false;
+  private final Map<String, MethodStats> methods = new HashMap<>();
+  private final Map<String, PayloadSizes> messages = new HashMap<>();
+  private final Map<Integer, ListenerStats> listeners = new HashMap<>();
+  private Histogram queryBuilds = new Histogram();
+
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Enables or disables recording. Enabling the stats clears everything recorded before. */
+  synchronized void setEnabled(boolean enabled) {
+    if (enabled && !this.enabled) {
+      methods.clear();
+      messages.clear();
+      for (ListenerStats listener : listeners.values()) {
+        listener.clear();
+      }
+      queryBuilds = new Histogram();
+    }
+    this.enabled = enabled;
+  }
+
+  /**
+   * Returns a result that records the latency of the method call, whether it failed, and the size
+   * of its reply if it was encoded by the plugin, before passing the reply on to {@code result}.
+   */
+  Result wrap(final String method, final Result result) {
+    final long startNanos = System.nanoTime();
+    return new Result() {
+      @Override
+      public void success(@Nullable Object value) {
+        record(method, System.nanoTime() - startNanos, false, value);
+        result.success(value);
+      }
+
+      @Override
+      public void error(String errorCode, @Nullable String errorMessage, @Nullable Object details) {
+        record(method, System.nanoTime() - startNanos, true, null);
+        result.error(errorCode, errorMessage, details);
+      }
+
+      @Override
+      public void notImplemented() {
+        result.notImplemented();
+      }
+    };
+  }
+
+  private synchronized void record(String method, long nanos, boolean error, Object value) {
+    MethodStats stats = methods.get(method);
+    if (stats == null) {
+      stats = new MethodStats();
+      methods.put(method, stats);
+    }
+    stats.latency.record(nanos);
+    if (error) stats.errors++;
+    if (value instanceof byte[]) stats.payloads.record(((byte[]) value).length);
+  }
+
+  /** Records how long it took to build an SDK query that was not in the query cache. */
+  void recordQueryBuild(long nanos) {
+    if (!enabled) return;
+    synchronized (this) {
+      queryBuilds.record(nanos);
+    }
+  }
+
+  /** Records the size of an encoded message sent to Dart, such as a {@code QuerySnapshot}. */
+  void recordMessage(String method, int bytes) {
+    if (!enabled) return;
+    synchronized (this) {
+      PayloadSizes sizes = messages.get(method);
+      if (sizes == null) {
+        sizes = new PayloadSizes();
+        messages.put(method, sizes);
+      }
+      sizes.record(bytes);
+    }
+  }
+
+  /** Starts keeping the stats of the query listener {@code id}, which listens to {@code path}. */
+  synchronized ListenerStats addListener(int id, String path) {
+    ListenerStats stats = new ListenerStats(id, path);
+    listeners.put(id, stats);
+    return stats;
+  }
+
+  synchronized void removeListener(ListenerStats stats) {
+    listeners.remove(stats.id);
+  }
+
+  synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("enabled", enabled);
+    List<Long> bounds = new ArrayList<>();
+    for (long bound : BUCKET_BOUNDS_MILLIS) {
+      bounds.add(bound);
+    }
+    stats.put("histogramBoundsMillis", bounds);
+
+    Map<String, Object> methodStats = new HashMap<>();
+    for (Map.Entry<String, MethodStats> entry : methods.entrySet()) {
+      Map<String, Object> method = new HashMap<>();
+      entry.getValue().latency.addTo(method);
+      entry.getValue().payloads.addTo(method);
+      method.put("errors", entry.getValue().errors);
+      methodStats.put(entry.getKey(), method);
+    }
+    stats.put("methods", methodStats);
+
+    Map<String, Object> messageStats = new HashMap<>();
+    for (Map.Entry<String, PayloadSizes> entry : messages.entrySet()) {
+      Map<String, Object> message = new HashMap<>();
+      entry.getValue().addTo(message);
+      messageStats.put(entry.getKey(), message);
+    }
+    stats.put("messages", messageStats);
+
+    List<Map<String, Object>> listenerStats = new ArrayList<>();
+    for (Map.Entry<Integer, ListenerStats> entry : listeners.entrySet()) {
+      ListenerStats listener = entry.getValue();
+      Map<String, Object> listenerMap = new HashMap<>();
+      listenerMap.put("id", entry.getKey());
+      listenerMap.put("path", listener.path);
+      listenerMap.put("delivered", listener.delivered);
+      listenerMap.put("dropped", listener.dropped);
+      listenerMap.put("errors", listener.errors);
+      listener.latency.addTo(listenerMap);
+      listener.payloads.addTo(listenerMap);
+      listenerStats.add(listenerMap);
+    }
+    stats.put("listeners", listenerStats);
+
+    Map<String, Object> queryBuildStats = new HashMap<>();
+    queryBuilds.addTo(queryBuildStats);
+    stats.put("queryBuilds", queryBuildStats);
+    return stats;
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the count of a query result, and the sum, minimum, maximum and average of numeric
+ * fields over its documents, so that only those numbers have to be sent to the Dart side.
+ *
+ * <p>Fields are named like in {@link DocumentSnapshot#get(String)}, so they may be dotted paths
+ * into nested maps. Documents in which a field is missing or not a number are skipped for that
+ * field.
+ */
+final class QueryAggregator {
+
+  /** The running totals of one field. */
+  private static final class FieldTotals {
+    int count = 0;
+    long longSum = 0;
+    double doubleSum = 0;
+    boolean integersOnly = true;
+    Number min;
+    Number max;
+
+    void add(Number value) {
+      count++;
+      if (value instanceof Integer || value instanceof Long) {
+        longSum += value.longValue();
+      } else {
+        integersOnly = false;
+      }
+      doubleSum += value.doubleValue();
+      if (min == null || value.doubleValue() < min.doubleValue()) min = value;
+      if (max == null || value.doubleValue() > max.doubleValue()) max = value;
+    }
+
+    Number sum() {
+      if (integersOnly) return longSum;
+      return doubleSum;
+    }
+
+    Double average() {
+      return count == 0 ? null : doubleSum / count;
+    }
+  }
+
+  static Map<String, Object> aggregate(
+      QuerySnapshot querySnapshot,
+      List<String> sumFields,
+      List<String> minFields,
+      List<String> maxFields,
+      List<String> averageFields) {
+    Map<String, FieldTotals> totals = new HashMap<>();
+    addFields(totals, sumFields);
+    addFields(totals, minFields);
+    addFields(totals, maxFields);
+    addFields(totals, averageFields);
+
+    for (DocumentSnapshot document : querySnapshot.getDocuments()) {
+      for (Map.Entry<String, FieldTotals> entry : totals.entrySet()) {
+        Object value = document.get(entry.getKey());
+        if (value instanceof Number) entry.getValue().add((Number) value);
+      }
+    }
+
+    Map<String, Object> sums = new HashMap<>();
+    for (String field : sumFields) sums.put(field, totals.get(field).sum());
+    Map<String, Object> mins = new HashMap<>();
+    for (String field : minFields) mins.put(field, totals.get(field).min);
+    Map<String, Object> maxs = new HashMap<>();
+    for (String field : maxFields) maxs.put(field, totals.get(field).max);
+    Map<String, Object> averages = new HashMap<>();
+    for (String field : averageFields) averages.put(field, totals.get(field).average());
+
+    Map<String, Object> result = new HashMap<>();
+    result.put("count", querySnapshot.size());
+    result.put("sum", sums);
+    result.put("min", mins);
+    result.put("max", maxs);
+    result.put("average", averages);
+    return result;
+  }
+
+  private static void addFields(Map<String, FieldTotals> totals, List<String> fields) {
+    for (String field : fields) {
+      if (!totals.containsKey(field)) totals.put(field, new FieldTotals());
+    }
+  }
+
+  // Should never be instantiated.
+  private QueryAggregator() {}
+}
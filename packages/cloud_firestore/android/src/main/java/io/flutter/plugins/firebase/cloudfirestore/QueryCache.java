@@ -0,0 +1,92 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import com.google.firebase.firestore.Query;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recently used queries by their {@link QueryKey}, so that repeated calls with the
+ * same query skip parsing it again.
+ *
+ * <p>Queries are bound to the Firestore instance of their app, so the queries of an app are evicted
+ * with {@link #evictApp} when that instance is replaced, e.g. because the app was deleted.
+ *
+ * <p>May be used from any thread.
+ */
+final class QueryCache {
+  interface Builder {
+    Query build();
+  }
+
+  private static final class CachedQuery {
+    final String app;
+    final Query query;
+
+    CachedQuery(String app, Query query) {
+      this.app = app;
+      this.query = query;
+    }
+  }
+
+  private final Map<String, CachedQuery> entries;
+  private int hitCount = 0;
+  private int missCount = 0;
+  // Incremented by every eviction, so that a query built meanwhile isn't cached.
+  private int evictions = 0;
+
+  QueryCache(final int maxSize) {
+    entries =
+        new LinkedHashMap<String, CachedQuery>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, CachedQuery> eldest) {
+            return size() > maxSize;
+          }
+        };
+  }
+
+  /** Returns the query of {@code app} cached for {@code key}, or builds it with {@code builder}. */
+  Query get(String app, String key, Builder builder) {
+    int evictionsBefore;
+    synchronized (this) {
+      CachedQuery cached = entries.get(key);
+      if (cached != null) {
+        hitCount++;
+        return cached.query;
+      }
+      missCount++;
+      evictionsBefore = evictions;
+    }
+    // Built outside the lock, since building a query may take a while.
+    Query query = builder.build();
+    synchronized (this) {
+      if (evictions == evictionsBefore) entries.put(key, new CachedQuery(app, query));
+    }
+    return query;
+  }
+
+  /** Removes all queries of {@code app}. */
+  synchronized void evictApp(String app) {
+    evictions++;
+    Iterator<CachedQuery> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().app.equals(app)) iterator.remove();
+    }
+  }
+
+  synchronized int hitCount() {
+    return hitCount;
+  }
+
+  synchronized int missCount() {
+    return missCount;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the results of a query one page at a time, starting each page after the last {@link
+ * DocumentSnapshot} of the previous one.
+ *
+ * <p>As soon as a page has been read, the next one is fetched in the background, so that {@link
+ * #next} can usually be served without waiting for Firestore. The first page is fetched when the
+ * cursor is created.
+ *
+ * <p>If the query has a limit, the cursor stops after that many documents in total. Once the last
+ * page has been read, {@link #next} returns empty pages.
+ *
+ * <p>All methods must be called on the UI thread.
+ */
+final class QueryCursor {
+  interface Callback {
+    /** Called with the documents of a page, and whether there may be more pages after it. */
+    void onPage(List<DocumentSnapshot> documents, boolean hasMore);
+
+    void onError(Exception e);
+  }
+
+  private final Query query;
+  private final int pageSize;
+  private final Source source;
+  // The number of documents left to read before the limit of the query, or null if it has none.
+  private Integer remaining;
+  private boolean exhausted;
+  private DocumentSnapshot lastDocument;
+  private Task<QuerySnapshot> prefetch;
+
+  /**
+   * Creates a cursor over {@code query}, which may have a limit. The limit must be given as {@code
+   * limit} too, since it can't be read back from the query.
+   */
+  QueryCursor(Query query, Integer limit, int pageSize, Source source) {
+    this.query = query;
+    this.remaining = limit;
+    this.pageSize = pageSize;
+    this.source = source;
+    this.exhausted = limit != null && limit <= 0;
+    if (!exhausted) this.prefetch = fetch();
+  }
+
+  /**
+   * Reads the next page. Must not be called again before {@code callback} is called.
+   *
+   * <p>If the page fails, the following call reads it again.
+   */
+  void next(final Callback callback) {
+    if (exhausted) {
+      callback.onPage(Collections.<DocumentSnapshot>emptyList(), false);
+      return;
+    }
+    final int size = getNextPageSize();
+    Task<QuerySnapshot> page = prefetch != null ? prefetch : fetch();
+    prefetch = null;
+    page.addOnCompleteListener(
+        new OnCompleteListener<QuerySnapshot>() {
+          @Override
+          public void onComplete(@NonNull Task<QuerySnapshot> task) {
+            if (!task.isSuccessful()) {
+              callback.onError(task.getException());
+              return;
+            }
+            List<DocumentSnapshot> documents = task.getResult().getDocuments();
+            if (remaining != null) remaining -= documents.size();
+            exhausted = documents.size() < size || (remaining != null && remaining <= 0);
+            if (!documents.isEmpty()) lastDocument = documents.get(documents.size() - 1);
+            if (!exhausted) prefetch = fetch();
+            callback.onPage(documents, !exhausted);
+          }
+        });
+  }
+
+  private int getNextPageSize() {
+    return remaining != null ? Math.min(pageSize, remaining) : pageSize;
+  }
+
+  private Task<QuerySnapshot> fetch() {
+    Query page = lastDocument != null ? query.startAfter(lastDocument) : query;
+    return page.limit(getNextPageSize()).get(source);
+  }
+}
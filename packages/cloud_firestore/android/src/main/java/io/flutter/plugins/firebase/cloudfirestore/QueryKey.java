@@ -0,0 +1,104 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.GeoPoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a canonical string for the query arguments sent from Dart ({@code app}, {@code path},
+ * {@code isCollectionGroup} and {@code parameters}).
+ *
+ * <p>Two argument maps that describe the same query produce the same key, regardless of the
+ * iteration order of the decoded maps.
+ */
+final class QueryKey {
+
+  static String of(Map<String, Object> arguments) {
+    StringBuilder builder = new StringBuilder();
+    append(builder, arguments.get("app"));
+    builder.append('|');
+    append(builder, arguments.get("path"));
+    builder.append('|');
+    append(builder, arguments.get("isCollectionGroup"));
+    builder.append('|');
+    append(builder, arguments.get("parameters"));
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, Object value) {
+    if (value == null) {
+      builder.append("null");
+    } else if (value instanceof String) {
+      String string = (String) value;
+      builder.append('"');
+      for (int i = 0; i < string.length(); i++) {
+        char c = string.charAt(i);
+        if (c == '"' || c == '\\') builder.append('\\');
+        builder.append(c);
+      }
+      builder.append('"');
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      List<String> keys = new ArrayList<>();
+      for (Object key : map.keySet()) {
+        keys.add(String.valueOf(key));
+      }
+      Collections.sort(keys);
+      builder.append('{');
+      for (String key : keys) {
+        append(builder, key);
+        builder.append(':');
+        append(builder, map.get(key));
+        builder.append(',');
+      }
+      builder.append('}');
+    } else if (value instanceof List) {
+      builder.append('[');
+      for (Object element : (List<?>) value) {
+        append(builder, element);
+        builder.append(',');
+      }
+      builder.append(']');
+    } else if (value instanceof DocumentReference) {
+      DocumentReference reference = (DocumentReference) value;
+      builder.append("ref(");
+      append(builder, reference.getFirestore().getApp().getName());
+      append(builder, reference.getPath());
+      builder.append(')');
+    } else if (value instanceof Timestamp) {
+      Timestamp timestamp = (Timestamp) value;
+      builder.append("ts(");
+      builder.append(timestamp.getSeconds()).append(',').append(timestamp.getNanoseconds());
+      builder.append(')');
+    } else if (value instanceof Date) {
+      builder.append("date(").append(((Date) value).getTime()).append(')');
+    } else if (value instanceof GeoPoint) {
+      GeoPoint point = (GeoPoint) value;
+      builder.append("geo(");
+      builder.append(point.getLatitude()).append(',').append(point.getLongitude());
+      builder.append(')');
+    } else if (value instanceof Blob) {
+      builder.append("blob(");
+      for (byte b : ((Blob) value).toBytes()) {
+        builder.append(Integer.toHexString(b & 0xff)).append(',');
+      }
+      builder.append(')');
+    } else {
+      // Numbers and booleans. The class name keeps e.g. 1 and 1.0 apart.
+      builder.append(value.getClass().getSimpleName()).append('(').append(value).append(')');
+    }
+  }
+
+  // Should never be instantiated.
+  private QueryKey() {}
+}
@@ -0,0 +1,289 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a list of queries against the local cache in the background when the plugin is registered,
+ * so that Firestore's persistence layer is open and the queries are built before Dart first asks
+ * for them.
+ *
+ * <p>The queries are set from Dart and saved in shared preferences for the next start. Collections
+ * listed, separated by commas, in the {@link #PREWARM_COLLECTIONS_KEY} metadata of the application
+ * are prewarmed as well. Since Firestore settings can't change once an instance is in use, the
+ * last settings passed from Dart are saved too and applied before the prewarm, unless Dart already
+ * passed settings in this run. Settings are only saved while there are queries to prewarm.
+ *
+ * <p>Shared preferences and the application metadata are read on a background thread. All methods
+ * must be called on the UI thread.
+ */
+final class QueryPrewarmer {
+  static final String PREWARM_COLLECTIONS_KEY =
+      "io.flutter.plugins.firebase.cloudfirestore.PREWARM_COLLECTIONS";
+
+  private static final String TAG = "QueryPrewarmer";
+  private static final String PREFS_NAME =
+      "io.flutter.plugins.firebase.cloudfirestore.CloudFirestorePlugin";
+  private static final String QUERIES_KEY = "prewarm_queries";
+  private static final String SETTINGS_KEY = "settings";
+
+  interface Delegate {
+    /** Applies Firestore settings sent from Dart. */
+    void applySettings(Map<String, Object> settings);
+
+    /** Returns the query described by arguments sent from Dart. */
+    Query getQuery(Map<String, Object> arguments);
+  }
+
+  private final Context context;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // Loaded on first use, see getPreferences().
+  private SharedPreferences preferences;
+  private final Map<String, Map<String, Object>> appliedSettings = new HashMap<>();
+  // The settings passed from Dart in this run, saved once queries to prewarm are set.
+  private final Map<String, Object> currentSettings = new HashMap<>();
+  private List<Map<String, Object>> loadedManifestQueries;
+
+  private boolean started = false;
+  private boolean completed = false;
+  private int queries = 0;
+  private int succeeded = 0;
+  private int documents = 0;
+  private long elapsedMillis = 0;
+
+  QueryPrewarmer(Context context) {
+    this.context = context;
+  }
+
+  /** Saves the arguments of the queries to prewarm on the next start. */
+  void saveQueries(List<Object> queries) {
+    SharedPreferences.Editor editor = getPreferences().edit();
+    if (queries.isEmpty()) {
+      editor.remove(QUERIES_KEY);
+    } else {
+      editor.putString(QUERIES_KEY, encode(queries));
+    }
+    if (queries.isEmpty() && getManifestQueries().isEmpty()) {
+      editor.remove(SETTINGS_KEY);
+    } else if (!currentSettings.isEmpty()) {
+      Map<String, Object> settingsByApp = loadSettings();
+      settingsByApp.putAll(currentSettings);
+      editor.putString(SETTINGS_KEY, encode(settingsByApp));
+    }
+    editor.apply();
+  }
+
+  /**
+   * Saves the settings of an app, to be applied before the prewarm on the next start. The settings
+   * are only written to shared preferences while there are queries to prewarm.
+   */
+  void saveSettings(Map<String, Object> settings) {
+    String app = (String) settings.get("app");
+    currentSettings.put(app, settings);
+    if (!hasQueries()) return;
+    Map<String, Object> settingsByApp = loadSettings();
+    if (settings.equals(settingsByApp.get(app))) return;
+    settingsByApp.put(app, settings);
+    getPreferences().edit().putString(SETTINGS_KEY, encode(settingsByApp)).apply();
+  }
+
+  /** Whether {@code settings} were already applied before the prewarm. */
+  boolean wereApplied(Map<String, Object> settings) {
+    return settings.equals(appliedSettings.get(settings.get("app")));
+  }
+
+  /** Whether the prewarm applied saved settings to the Firestore instance of {@code app}. */
+  boolean appliedSettingsOf(String app) {
+    return appliedSettings.containsKey(app);
+  }
+
+  /**
+   * Reads the saved settings and queries on a background thread, then applies the settings and runs
+   * the queries against the local cache on the UI thread. Does nothing if there are no queries to
+   * prewarm.
+   */
+  void start(final Delegate delegate) {
+    final long startMillis = SystemClock.elapsedRealtime();
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (!hasQueries()) return;
+            final Map<String, Object> settings = loadSettings();
+            final List<Map<String, Object>> arguments = new ArrayList<>(loadQueries());
+            arguments.addAll(getManifestQueries());
+            handler.post(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    prewarm(delegate, settings, arguments, startMillis);
+                  }
+                });
+          }
+        });
+  }
+
+  private void prewarm(
+      Delegate delegate,
+      Map<String, Object> settingsByApp,
+      final List<Map<String, Object>> arguments,
+      final long startMillis) {
+    started = true;
+    for (Map.Entry<String, Object> entry : settingsByApp.entrySet()) {
+      // Settings passed from Dart in this run already took effect.
+      if (currentSettings.containsKey(entry.getKey())) continue;
+      @SuppressWarnings("unchecked")
+      Map<String, Object> settings = (Map<String, Object>) entry.getValue();
+      try {
+        delegate.applySettings(settings);
+        appliedSettings.put(entry.getKey(), settings);
+      } catch (IllegalStateException e) {
+        // The app is not initialized yet, e.g. because it is configured from Dart.
+        Log.w(TAG, "Could not apply settings of app " + entry.getKey(), e);
+      }
+    }
+    List<Task<QuerySnapshot>> tasks = new ArrayList<>();
+    for (Map<String, Object> query : arguments) {
+      try {
+        tasks.add(delegate.getQuery(query).get(Source.CACHE));
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Could not prewarm query " + QueryKey.of(query), e);
+      }
+    }
+    Tasks.whenAllComplete(tasks)
+        .addOnCompleteListener(
+            new OnCompleteListener<List<Task<?>>>() {
+              @Override
+              public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                queries = arguments.size();
+                for (Task<?> queryTask : task.getResult()) {
+                  if (!queryTask.isSuccessful()) continue;
+                  succeeded++;
+                  documents += ((QuerySnapshot) queryTask.getResult()).size();
+                }
+                elapsedMillis = SystemClock.elapsedRealtime() - startMillis;
+                completed = true;
+              }
+            });
+  }
+
+  Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("started", started);
+    stats.put("completed", completed);
+    stats.put("queries", queries);
+    stats.put("succeeded", succeeded);
+    stats.put("documents", documents);
+    stats.put("elapsedMillis", elapsedMillis);
+    return stats;
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<Map<String, Object>> loadQueries() {
+    Object queries = decode(getPreferences().getString(QUERIES_KEY, null));
+    return queries != null
+        ? (List<Map<String, Object>>) queries
+        : Collections.<Map<String, Object>>emptyList();
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> loadSettings() {
+    Object settings = decode(getPreferences().getString(SETTINGS_KEY, null));
+    return settings != null ? (Map<String, Object>) settings : new HashMap<String, Object>();
+  }
+
+  private boolean hasQueries() {
+    return !getManifestQueries().isEmpty() || getPreferences().contains(QUERIES_KEY);
+  }
+
+  // Reads the preferences file the first time, which is done by the background task of start().
+  private synchronized SharedPreferences getPreferences() {
+    if (preferences == null) {
+      preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+    return preferences;
+  }
+
+  // Reads the application metadata the first time, like getPreferences().
+  private synchronized List<Map<String, Object>> getManifestQueries() {
+    if (loadedManifestQueries == null) loadedManifestQueries = loadManifestQueries();
+    return loadedManifestQueries;
+  }
+
+  private List<Map<String, Object>> loadManifestQueries() {
+    List<Map<String, Object>> queries = new ArrayList<>();
+    String collections;
+    try {
+      Bundle metaData =
+          context
+              .getPackageManager()
+              .getApplicationInfo(context.getPackageName(), PackageManager.GET_META_DATA)
+              .metaData;
+      collections = metaData != null ? metaData.getString(PREWARM_COLLECTIONS_KEY) : null;
+    } catch (PackageManager.NameNotFoundException e) {
+      return queries;
+    }
+    if (collections == null) return queries;
+    for (String path : collections.split(",")) {
+      if (path.trim().isEmpty()) continue;
+      // The same arguments Dart sends for a collection without query parameters, so that the
+      // built queries are found in the query cache.
+      Map<String, Object> parameters = new HashMap<>();
+      parameters.put("where", new ArrayList<Object>());
+      parameters.put("orderBy", new ArrayList<Object>());
+      Map<String, Object> query = new HashMap<>();
+      query.put("app", FirebaseApp.DEFAULT_APP_NAME);
+      query.put("path", path.trim());
+      query.put("isCollectionGroup", false);
+      query.put("parameters", parameters);
+      queries.add(query);
+    }
+    return queries;
+  }
+
+  private static String encode(Object value) {
+    ByteBuffer buffer = FirestoreMessageCodec.INSTANCE.encodeMessage(value);
+    buffer.rewind();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return Base64.encodeToString(bytes, Base64.NO_WRAP);
+  }
+
+  private static Object decode(String value) {
+    if (value == null) return null;
+    try {
+      return FirestoreMessageCodec.INSTANCE.decodeMessage(
+          ByteBuffer.wrap(Base64.decode(value, Base64.NO_WRAP)));
+    } catch (RuntimeException e) {
+      // Saved by an incompatible version of the plugin.
+      Log.w(TAG, "Could not decode saved prewarm configuration", e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import androidx.annotation.NonNull;
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.Source;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads the documents that the fields of other documents refer to, so that they can be sent along
+ * with the documents that refer to them.
+ *
+ * <p>All references of one level are collected first, duplicates are removed, and the documents
+ * are then read at the same time. The documents read this way are searched for references in turn,
+ * until {@code depth} levels have been read. References that cannot be read are left out.
+ */
+final class ReferenceResolver {
+  interface Callback {
+    /** Called with the resolved documents by path. */
+    void onResolved(Map<String, DocumentSnapshot> resolved);
+  }
+
+  private final Source source;
+  private final Executor executor;
+  private final Callback callback;
+  private final Map<String, DocumentSnapshot> resolved = new HashMap<>();
+
+  private ReferenceResolver(Source source, Executor executor, Callback callback) {
+    this.source = source;
+    this.executor = executor;
+    this.callback = callback;
+  }
+
+  /** Resolves the references in {@code documents}, calling {@code callback} on {@code executor}. */
+  static void resolve(
+      List<DocumentSnapshot> documents,
+      int depth,
+      Source source,
+      Executor executor,
+      Callback callback) {
+    new ReferenceResolver(source, executor, callback).resolveLevel(documents, depth);
+  }
+
+  private void resolveLevel(List<DocumentSnapshot> documents, final int depth) {
+    Map<String, DocumentReference> references = new LinkedHashMap<>();
+    if (depth > 0) {
+      for (DocumentSnapshot document : documents) {
+        if (document.exists()) collectReferences(document.getData(), references);
+      }
+    }
+    if (references.isEmpty()) {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              callback.onResolved(resolved);
+            }
+          });
+      return;
+    }
+
+    final List<Task<DocumentSnapshot>> tasks = new ArrayList<>();
+    for (DocumentReference reference : references.values()) {
+      tasks.add(reference.get(source));
+    }
+    Tasks.whenAllComplete(tasks)
+        .addOnCompleteListener(
+            executor,
+            new OnCompleteListener<List<Task<?>>>() {
+              @Override
+              public void onComplete(@NonNull Task<List<Task<?>>> task) {
+                List<DocumentSnapshot> next = new ArrayList<>();
+                for (Task<DocumentSnapshot> documentTask : tasks) {
+                  if (documentTask.isSuccessful()) {
+                    DocumentSnapshot snapshot = documentTask.getResult();
+                    resolved.put(snapshot.getReference().getPath(), snapshot);
+                    next.add(snapshot);
+                  }
+                }
+                resolveLevel(next, depth - 1);
+              }
+            });
+  }
+
+  /** Adds the references in {@code value} that have not been resolved yet to {@code references}. */
+  private void collectReferences(Object value, Map<String, DocumentReference> references) {
+    if (value instanceof DocumentReference) {
+      DocumentReference reference = (DocumentReference) value;
+      String path = reference.getPath();
+      if (!resolved.containsKey(path)) references.put(path, reference);
+    } else if (value instanceof Map) {
+      for (Object element : ((Map<?, ?>) value).values()) {
+        collectReferences(element, references);
+      }
+    } else if (value instanceof List) {
+      for (Object element : (List<?>) value) {
+        collectReferences(element, references);
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor used to convert and encode Firestore snapshots off the UI thread.
+ *
+ * <p>All work runs on a single background thread, so snapshots of the same listener are encoded
+ * and posted to the UI thread in the order in which the SDK delivered them.
+ */
+final class SnapshotSerializer implements Executor {
+  private final ThreadPoolExecutor executor;
+  private final Handler uiThreadHandler = new Handler(Looper.getMainLooper());
+
+  private long serializedCount = 0;
+  private long totalSerializationNanos = 0;
+  private long maxSerializationNanos = 0;
+  private int maxQueueDepth = 0;
+
+  SnapshotSerializer() {
+    executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "FirestoreSnapshotSerializer");
+              }
+            });
+    // The thread is started again for the next snapshot after it timed out.
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    executor.execute(command);
+    int queueDepth = executor.getQueue().size();
+    synchronized (this) {
+      if (queueDepth > maxQueueDepth) maxQueueDepth = queueDepth;
+    }
+  }
+
+  /** Runs {@code command} on the serializer thread after {@code delayMillis}. */
+  void executeDelayed(final Runnable command, long delayMillis) {
+    uiThreadHandler.postDelayed(
+        new Runnable() {
+          @Override
+          public void run() {
+            execute(command);
+          }
+        },
+        delayMillis);
+  }
+
+  /** Posts the finished payload delivery to the UI thread. */
+  void postToUiThread(Runnable runnable) {
+    uiThreadHandler.post(runnable);
+  }
+
+  /** Records how long it took to convert and encode one snapshot. */
+  synchronized void recordSerialization(long nanos) {
+    serializedCount++;
+    totalSerializationNanos += nanos;
+    if (nanos > maxSerializationNanos) maxSerializationNanos = nanos;
+  }
+
+  synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("serializedSnapshots", serializedCount);
+    stats.put("totalSerializationMicros", TimeUnit.NANOSECONDS.toMicros(totalSerializationNanos));
+    stats.put("maxSerializationMicros", TimeUnit.NANOSECONDS.toMicros(maxSerializationNanos));
+    stats.put("queueDepth", executor.getQueue().size());
+    stats.put("maxQueueDepth", maxQueueDepth);
+    return stats;
+  }
+}
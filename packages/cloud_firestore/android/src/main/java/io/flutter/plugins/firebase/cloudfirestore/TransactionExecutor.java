@@ -0,0 +1,90 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking operations of Firestore transactions on a small dedicated thread pool.
+ *
+ * <p>Operations of the same transaction run one after the other, in the order in which they were
+ * submitted, since the SDK requires all reads of a transaction to happen before its writes.
+ * Operations of different transactions run in parallel, so that one transaction waiting for a
+ * read does not hold up the others.
+ */
+final class TransactionExecutor {
+  private static final int THREAD_COUNT = 4;
+
+  private final ThreadPoolExecutor executor;
+  private final Handler uiThreadHandler = new Handler(Looper.getMainLooper());
+  // Operations waiting for the running operation of their transaction to finish.
+  private final Map<Integer, ArrayDeque<Runnable>> queues = new HashMap<>();
+
+  TransactionExecutor() {
+    final AtomicInteger threadCount = new AtomicInteger();
+    executor =
+        new ThreadPoolExecutor(
+            THREAD_COUNT,
+            THREAD_COUNT,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable runnable) {
+                return new Thread(
+                    runnable, "FirestoreTransaction-" + threadCount.incrementAndGet());
+              }
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /** Runs {@code command} once all previously submitted operations of the transaction are done. */
+  synchronized void execute(int transactionId, Runnable command) {
+    ArrayDeque<Runnable> queue = queues.get(transactionId);
+    if (queue != null) {
+      queue.add(command);
+      return;
+    }
+    queues.put(transactionId, new ArrayDeque<Runnable>());
+    executor.execute(inOrder(transactionId, command));
+  }
+
+  /** Posts the reply of an operation to the UI thread. */
+  void postToUiThread(Runnable runnable) {
+    uiThreadHandler.post(runnable);
+  }
+
+  private Runnable inOrder(final int transactionId, final Runnable command) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          command.run();
+        } finally {
+          scheduleNext(transactionId);
+        }
+      }
+    };
+  }
+
+  private synchronized void scheduleNext(int transactionId) {
+    Runnable next = queues.get(transactionId).poll();
+    if (next == null) {
+      queues.remove(transactionId);
+    } else {
+      executor.execute(inOrder(transactionId, next));
+    }
+  }
+}
@@ -0,0 +1,315 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class BulkWriterTest {
+  private static final int MAX_RETRIES = 2;
+  private static final long INITIAL_BACKOFF_MILLIS = 100;
+
+  private FirebaseFirestore firestore;
+  // The batches in the order they were committed, and the listeners of their commits.
+  private final List<WriteBatch> batches = new ArrayList<>();
+  private final List<OnCompleteListener<Void>> commits = new ArrayList<>();
+  private final List<Runnable> retries = new ArrayList<>();
+  private final List<Long> backoffs = new ArrayList<>();
+  private final List<Map<String, Object>> failures = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    firestore = mock(FirebaseFirestore.class);
+    when(firestore.document(anyString())).thenReturn(mock(DocumentReference.class));
+    when(firestore.batch())
+        .thenAnswer(
+            new Answer<WriteBatch>() {
+              @Override
+              public WriteBatch answer(InvocationOnMock invocation) {
+                return newBatch();
+              }
+            });
+  }
+
+  @SuppressWarnings("unchecked")
+  private WriteBatch newBatch() {
+    final WriteBatch batch = mock(WriteBatch.class);
+    final Task<Void> task = mock(Task.class);
+    when(batch.commit())
+        .thenAnswer(
+            new Answer<Task<Void>>() {
+              @Override
+              public Task<Void> answer(InvocationOnMock invocation) {
+                batches.add(batch);
+                return task;
+              }
+            });
+    when(task.addOnCompleteListener(any(OnCompleteListener.class)))
+        .thenAnswer(
+            new Answer<Task<Void>>() {
+              @Override
+              public Task<Void> answer(InvocationOnMock invocation) {
+                commits.add((OnCompleteListener<Void>) invocation.getArgument(0));
+                return task;
+              }
+            });
+    return batch;
+  }
+
+  private BulkWriter writer(int maxConcurrentBatches) {
+    return new BulkWriter(
+        firestore,
+        maxConcurrentBatches,
+        MAX_RETRIES,
+        INITIAL_BACKOFF_MILLIS,
+        new BulkWriter.ProgressListener() {
+          @Override
+          @SuppressWarnings("unchecked")
+          public void onProgress(Map<String, Object> progress) {
+            failures.addAll((List<Map<String, Object>>) progress.get("failures"));
+          }
+        },
+        new BulkWriter.RetryScheduler() {
+          @Override
+          public void schedule(Runnable retry, long delayMillis) {
+            retries.add(retry);
+            backoffs.add(delayMillis);
+          }
+        });
+  }
+
+  private static List<Map<String, Object>> deletes(int count) {
+    List<Map<String, Object>> operations = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> operation = new HashMap<>();
+      operation.put("type", "delete");
+      operation.put("path", "items/" + i);
+      operations.add(operation);
+    }
+    return operations;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Task<Void> succeeded() {
+    Task<Void> task = mock(Task.class);
+    when(task.isSuccessful()).thenReturn(true);
+    return task;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Task<Void> failed(FirebaseFirestoreException.Code code) {
+    Task<Void> task = mock(Task.class);
+    when(task.isSuccessful()).thenReturn(false);
+    when(task.getException()).thenReturn(new FirebaseFirestoreException("failed", code));
+    return task;
+  }
+
+  private static int operationCount(WriteBatch batch) {
+    // Every invocation but the commit adds an operation.
+    return mockingDetails(batch).getInvocations().size() - 1;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> totals(Result result) {
+    ArgumentCaptor<Object> captor = ArgumentCaptor.forClass(Object.class);
+    verify(result).success(captor.capture());
+    return (Map<String, Object>) captor.getValue();
+  }
+
+  @Test
+  public void add_splitsOperationsIntoBatchesOfMaxSize() {
+    BulkWriter writer = writer(3);
+    Result added = mock(Result.class);
+    writer.add(deletes(1200), 0, added);
+
+    assertEquals(3, batches.size());
+    assertEquals(500, operationCount(batches.get(0)));
+    assertEquals(500, operationCount(batches.get(1)));
+    assertEquals(200, operationCount(batches.get(2)));
+    verify(added).success(null);
+  }
+
+  @Test
+  public void add_limitsConcurrentBatches() {
+    BulkWriter writer = writer(1);
+    Result added = mock(Result.class);
+    writer.add(deletes(1500), 0, added);
+
+    assertEquals(1, batches.size());
+    // Two batches are still queued, which is more than may be in flight.
+    verify(added, never()).success(null);
+
+    commits.get(0).onComplete(succeeded());
+    assertEquals(2, batches.size());
+    verify(added, never()).success(null);
+
+    commits.get(1).onComplete(succeeded());
+    assertEquals(3, batches.size());
+    verify(added).success(null);
+  }
+
+  @Test
+  public void close_reportsTotalsOnceAllBatchesAreCommitted() {
+    BulkWriter writer = writer(2);
+    writer.add(deletes(600), 0, mock(Result.class));
+    Result closed = mock(Result.class);
+    writer.close(closed);
+    commits.get(0).onComplete(succeeded());
+    verify(closed, never()).success(any());
+
+    commits.get(1).onComplete(succeeded());
+    Map<String, Object> totals = totals(closed);
+    assertEquals(600, totals.get("committed"));
+    assertEquals(0, totals.get("failed"));
+  }
+
+  @Test
+  public void transientFailure_isRetriedWithBackoff() {
+    BulkWriter writer = writer(1);
+    writer.add(deletes(10), 0, mock(Result.class));
+    Result closed = mock(Result.class);
+    writer.close(closed);
+
+    commits.get(0).onComplete(failed(FirebaseFirestoreException.Code.UNAVAILABLE));
+    assertEquals(1, retries.size());
+    retries.get(0).run();
+    commits.get(1).onComplete(failed(FirebaseFirestoreException.Code.UNAVAILABLE));
+    assertEquals(2, retries.size());
+    retries.get(1).run();
+    commits.get(2).onComplete(succeeded());
+
+    assertEquals(INITIAL_BACKOFF_MILLIS, (long) backoffs.get(0));
+    assertEquals(2 * INITIAL_BACKOFF_MILLIS, (long) backoffs.get(1));
+    assertEquals(10, operationCount(batches.get(2)));
+    Map<String, Object> totals = totals(closed);
+    assertEquals(10, totals.get("committed"));
+    assertEquals(2, totals.get("retries"));
+  }
+
+  @Test
+  public void transientFailure_failsAllOperationsOnceRetriesAreUsedUp() {
+    BulkWriter writer = writer(1);
+    writer.add(deletes(10), 0, mock(Result.class));
+    Result closed = mock(Result.class);
+    writer.close(closed);
+
+    for (int attempt = 0; attempt <= MAX_RETRIES; attempt++) {
+      commits.get(attempt).onComplete(failed(FirebaseFirestoreException.Code.UNAVAILABLE));
+      if (attempt < MAX_RETRIES) retries.get(attempt).run();
+    }
+
+    // The batch is not split, which would only multiply the retries.
+    assertEquals(MAX_RETRIES + 1, batches.size());
+    assertEquals(10, failures.size());
+    assertEquals("UNAVAILABLE", failures.get(0).get("code"));
+    Map<String, Object> totals = totals(closed);
+    assertEquals(0, totals.get("committed"));
+    assertEquals(10, totals.get("failed"));
+  }
+
+  @Test
+  public void permanentFailure_isolatesFailingOperationByBisection() {
+    BulkWriter writer = writer(1);
+    writer.add(deletes(4), 10, mock(Result.class));
+    Result closed = mock(Result.class);
+    writer.close(closed);
+
+    // [10-13] fails and is split into [10, 11] and [12, 13].
+    commits.get(0).onComplete(failed(FirebaseFirestoreException.Code.PERMISSION_DENIED));
+    assertEquals(2, operationCount(batches.get(1)));
+    commits.get(1).onComplete(succeeded());
+    // [12, 13] fails and is split into [12] and [13].
+    commits.get(2).onComplete(failed(FirebaseFirestoreException.Code.PERMISSION_DENIED));
+    commits.get(3).onComplete(succeeded());
+    commits.get(4).onComplete(failed(FirebaseFirestoreException.Code.PERMISSION_DENIED));
+
+    assertTrue(retries.isEmpty());
+    assertEquals(1, failures.size());
+    assertEquals(13, failures.get(0).get("index"));
+    assertEquals("items/3", failures.get(0).get("path"));
+    assertEquals("PERMISSION_DENIED", failures.get(0).get("code"));
+    Map<String, Object> totals = totals(closed);
+    assertEquals(3, totals.get("committed"));
+    assertEquals(1, totals.get("failed"));
+  }
+
+  @Test
+  public void invalidOperation_isReportedWithoutCommitting() {
+    BulkWriter writer = writer(1);
+    List<Map<String, Object>> operations = deletes(3);
+    operations.get(1).put("type", "unknown");
+    operations.get(2).remove("type");
+    writer.add(operations, 0, mock(Result.class));
+    Result closed = mock(Result.class);
+    writer.close(closed);
+    commits.get(0).onComplete(succeeded());
+
+    assertEquals(1, operationCount(batches.get(0)));
+    assertEquals(2, failures.size());
+    assertEquals("INVALID_ARGUMENT", failures.get(0).get("code"));
+    Map<String, Object> totals = totals(closed);
+    assertEquals(1, totals.get("committed"));
+    assertEquals(2, totals.get("failed"));
+  }
+
+  @Test
+  public void abort_dropsQueuedBatchesAndRetries() {
+    BulkWriter writer = writer(1);
+    Result added = mock(Result.class);
+    writer.add(deletes(1500), 0, added);
+    verify(added, never()).success(null);
+
+    // The next batch is committed while the failed one waits for its retry.
+    commits.get(0).onComplete(failed(FirebaseFirestoreException.Code.UNAVAILABLE));
+    assertEquals(2, batches.size());
+    writer.abort();
+    verify(added).success(null);
+    retries.get(0).run();
+    Result closed = mock(Result.class);
+    writer.close(closed);
+    verify(closed, never()).success(any());
+
+    // Only the batch that was already being committed completes.
+    commits.get(1).onComplete(succeeded());
+    assertEquals(2, batches.size());
+    assertEquals(500, totals(closed).get("committed"));
+  }
+
+  @Test
+  public void abort_doesNotSplitFailedBatches() {
+    BulkWriter writer = writer(1);
+    writer.add(deletes(4), 0, mock(Result.class));
+    writer.abort();
+    commits.get(0).onComplete(failed(FirebaseFirestoreException.Code.PERMISSION_DENIED));
+
+    assertEquals(1, batches.size());
+    verify(firestore, times(1)).batch();
+  }
+}
@@ -0,0 +1,126 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.cloudfirestore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import com.google.firebase.firestore.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryCacheTest {
+  private QueryCache cache;
+  private int builds;
+
+  @Before
+  public void setUp() {
+    cache = new QueryCache(4);
+    builds = 0;
+  }
+
+  private static Map<String, Object> arguments(String app, String path, Object limit) {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("where", Arrays.<Object>asList(Arrays.<Object>asList("a", "==", 1)));
+    parameters.put("orderBy", new ArrayList<Object>());
+    if (limit != null) parameters.put("limit", limit);
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("app", app);
+    arguments.put("path", path);
+    arguments.put("isCollectionGroup", false);
+    arguments.put("parameters", parameters);
+    return arguments;
+  }
+
+  private Query get(Map<String, Object> arguments) {
+    return cache.get(
+        (String) arguments.get("app"),
+        QueryKey.of(arguments),
+        new QueryCache.Builder() {
+          @Override
+          public Query build() {
+            builds++;
+            return mock(Query.class);
+          }
+        });
+  }
+
+  @Test
+  public void get_identicalQueriesHit() {
+    Query first = get(arguments("app", "foo", 10));
+    Query second = get(arguments("app", "foo", 10));
+    assertSame(first, second);
+    assertEquals(1, builds);
+    assertEquals(1, cache.hitCount());
+    assertEquals(1, cache.missCount());
+  }
+
+  @Test
+  public void get_differentParametersMiss() {
+    Query query = get(arguments("app", "foo", 10));
+    assertNotSame(query, get(arguments("app", "foo", 20)));
+    assertNotSame(query, get(arguments("app", "bar", 10)));
+    assertNotSame(query, get(arguments("other", "foo", 10)));
+    assertEquals(4, builds);
+    assertEquals(0, cache.hitCount());
+  }
+
+  @Test
+  public void get_evictsLeastRecentlyUsed() {
+    Query first = get(arguments("app", "a", null));
+    get(arguments("app", "b", null));
+    get(arguments("app", "c", null));
+    get(arguments("app", "d", null));
+    // Used again, so "b" is the least recently used query.
+    get(arguments("app", "a", null));
+    get(arguments("app", "e", null));
+    assertEquals(4, cache.size());
+    assertSame(first, get(arguments("app", "a", null)));
+    get(arguments("app", "b", null));
+    assertEquals(6, builds);
+  }
+
+  @Test
+  public void evictApp_doesNotReturnStaleQueries() {
+    Query deleted = get(arguments("app", "foo", 10));
+    Query other = get(arguments("other", "foo", 10));
+    // As on a settings change or the deletion of the app.
+    cache.evictApp("app");
+    assertNotSame(deleted, get(arguments("app", "foo", 10)));
+    assertSame(other, get(arguments("other", "foo", 10)));
+    assertEquals(3, builds);
+  }
+
+  @Test
+  public void evictApp_whileBuildingDoesNotCacheQuery() {
+    final Map<String, Object> arguments = arguments("app", "foo", 10);
+    final String key = QueryKey.of(arguments);
+    final List<Query> built = new ArrayList<>();
+    Query stale =
+        cache.get(
+            "app",
+            key,
+            new QueryCache.Builder() {
+              @Override
+              public Query build() {
+                Query query = mock(Query.class);
+                built.add(query);
+                // The app is deleted on another thread while the query is built.
+                cache.evictApp("app");
+                return query;
+              }
+            });
+    assertSame(built.get(0), stale);
+    assertNotSame(stale, get(arguments));
+    assertEquals(1, cache.size());
+  }
+}
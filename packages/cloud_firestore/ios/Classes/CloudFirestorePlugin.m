@@ -616,6 +616,27 @@ const UInt8 INCREMENT_INTEGER = 138;
     FIRWriteBatch *batch = [_batches objectForKey:handle];
     [batch commitWithCompletion:defaultCompletionBlock];
     [_batches removeObjectForKey:handle];
+  } else if ([@"WriteBatch#commitOps" isEqualToString:call.method]) {
+    FIRFirestore *firestore = getFirestore(call.arguments);
+    FIRWriteBatch *batch = [firestore batch];
+    for (NSDictionary *operation in call.arguments[@"operations"]) {
+      NSString *type = operation[@"type"];
+      FIRDocumentReference *document = [firestore documentWithPath:operation[@"path"]];
+      if ([@"set" isEqualToString:type]) {
+        NSDictionary *options = operation[@"options"];
+        if (![options isEqual:[NSNull null]] &&
+            [options[@"merge"] isEqual:[NSNumber numberWithBool:YES]]) {
+          [batch setData:operation[@"data"] forDocument:document merge:YES];
+        } else {
+          [batch setData:operation[@"data"] forDocument:document];
+        }
+      } else if ([@"update" isEqualToString:type]) {
+        [batch updateData:operation[@"data"] forDocument:document];
+      } else if ([@"delete" isEqualToString:type]) {
+        [batch deleteDocument:document];
+      }
+    }
+    [batch commitWithCompletion:defaultCompletionBlock];
   } else if ([@"Firestore#enablePersistence" isEqualToString:call.method]) {
     bool enable = (bool)call.arguments[@"enable"];
     FIRFirestoreSettings *settings = [[FIRFirestoreSettings alloc] init];
@@ -17,16 +17,20 @@ import 'package:meta/meta.dart';
 
 import 'src/utils/push_id_generator.dart';
 
+part 'src/aggregate_result.dart';
 part 'src/blob.dart';
+part 'src/bulk_write.dart';
 part 'src/collection_reference.dart';
 part 'src/document_change.dart';
 part 'src/document_reference.dart';
+part 'src/document_result.dart';
 part 'src/document_snapshot.dart';
 part 'src/field_value.dart';
 part 'src/firestore.dart';
 part 'src/firestore_message_codec.dart';
 part 'src/geo_point.dart';
 part 'src/query.dart';
+part 'src/query_cursor.dart';
 part 'src/query_snapshot.dart';
 part 'src/snapshot_metadata.dart';
 part 'src/timestamp.dart';
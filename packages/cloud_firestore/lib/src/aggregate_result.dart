@@ -0,0 +1,28 @@
+// Copyright 2019, the Chromium project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+part of cloud_firestore;
+
+/// The aggregates of a query computed with [Query.aggregate].
+///
+/// The maps are keyed by the field names passed to [Query.aggregate]. Fields
+/// that are missing or not numbers in a document are skipped for that
+/// document; [min], [max] and [average] are null for fields that are not a
+/// number in any document.
+class AggregateResult {
+  AggregateResult._(Map<dynamic, dynamic> data)
+      : count = data['count'],
+        sum = Map<String, num>.from(data['sum']),
+        min = Map<String, num>.from(data['min']),
+        max = Map<String, num>.from(data['max']),
+        average = Map<String, double>.from(data['average']);
+
+  /// The number of documents matching the query.
+  final int count;
+
+  final Map<String, num> sum;
+  final Map<String, num> min;
+  final Map<String, num> max;
+  final Map<String, double> average;
+}
@@ -0,0 +1,108 @@
+// Copyright 2019, the Chromium project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+part of cloud_firestore;
+
+/// A single write passed to [Firestore.bulkWrite].
+class BulkWriteOperation {
+  BulkWriteOperation._(this._data);
+
+  /// Writes [data] to [document], merging it into the existing document if
+  /// [merge] is true.
+  factory BulkWriteOperation.set(
+      DocumentReference document, Map<String, dynamic> data,
+      {bool merge = false}) {
+    return BulkWriteOperation._(<String, dynamic>{
+      'type': 'set',
+      'path': document.path,
+      'data': data,
+      'options': <String, bool>{'merge': merge},
+    });
+  }
+
+  /// Updates fields of [document]. Fails if the document does not exist.
+  factory BulkWriteOperation.update(
+      DocumentReference document, Map<String, dynamic> data) {
+    return BulkWriteOperation._(<String, dynamic>{
+      'type': 'update',
+      'path': document.path,
+      'data': data,
+    });
+  }
+
+  /// Deletes [document].
+  factory BulkWriteOperation.delete(DocumentReference document) {
+    return BulkWriteOperation._(<String, dynamic>{
+      'type': 'delete',
+      'path': document.path,
+    });
+  }
+
+  final Map<String, dynamic> _data;
+}
+
+/// An operation of a [Firestore.bulkWrite] that could not be written.
+class BulkWriteFailure {
+  BulkWriteFailure._(Map<dynamic, dynamic> data)
+      : index = data['index'],
+        path = data['path'],
+        code = data['code'],
+        message = data['message'];
+
+  /// The position of the operation in the stream passed to
+  /// [Firestore.bulkWrite].
+  final int index;
+
+  /// The path of the document the operation was writing to.
+  final String path;
+
+  /// The Firestore error code, e.g. `NOT_FOUND` or `PERMISSION_DENIED`.
+  final String code;
+
+  final String message;
+}
+
+/// The state of a [Firestore.bulkWrite] in progress.
+class BulkWriteProgress {
+  BulkWriteProgress._(Map<dynamic, dynamic> data)
+      : committed = data['committed'],
+        failed = data['failed'],
+        retries = data['retries'],
+        failures = (data['failures'] as List<dynamic>)
+            .map<BulkWriteFailure>(
+                (dynamic failure) => BulkWriteFailure._(failure))
+            .toList();
+
+  /// The number of operations written so far.
+  final int committed;
+
+  /// The number of operations that failed so far.
+  final int failed;
+
+  /// The number of batch commits that were retried so far.
+  final int retries;
+
+  /// The failures that occurred since the previous progress update.
+  final List<BulkWriteFailure> failures;
+}
+
+/// The outcome of a completed [Firestore.bulkWrite].
+class BulkWriteResult {
+  BulkWriteResult._(Map<dynamic, dynamic> data, this.failures)
+      : committed = data['committed'],
+        failed = data['failed'],
+        retries = data['retries'];
+
+  /// The number of operations that were written.
+  final int committed;
+
+  /// The number of operations that could not be written.
+  final int failed;
+
+  /// The number of batch commits that were retried.
+  final int retries;
+
+  /// All operations that could not be written.
+  final List<BulkWriteFailure> failures;
+}
@@ -79,15 +79,22 @@ class DocumentReference {
   /// Reads the document referenced by this [DocumentReference].
   ///
   /// If no document exists, the read will return null.
-  Future<DocumentSnapshot> get({Source source = Source.serverAndCache}) async {
-    final Map<String, dynamic> data =
-        await Firestore.channel.invokeMapMethod<String, dynamic>(
-      'DocumentReference#get',
-      <String, dynamic>{
-        'app': firestore.app.name,
-        'path': path,
-        'source': _getSourceString(source),
-      },
+  ///
+  /// If [select] is set, the snapshot's data only contains those fields. Nested
+  /// fields are given as dot-separated paths like `address.city`. The full
+  /// document is still read, but only the selected fields are sent over the
+  /// platform channel. Currently only supported on Android.
+  Future<DocumentSnapshot> get(
+      {Source source = Source.serverAndCache, List<String> select}) async {
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'app': firestore.app.name,
+      'path': path,
+      'source': _getSourceString(source),
+    };
+    if (select != null) arguments['select'] = select;
+    final Map<dynamic, dynamic> data = _decodeSnapshotPayload(
+      await Firestore.channel
+          .invokeMethod<dynamic>('DocumentReference#get', arguments),
     );
     return DocumentSnapshot._(
       data['path'],
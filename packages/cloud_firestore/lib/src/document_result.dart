@@ -0,0 +1,38 @@
+// Copyright 2019, the Chromium project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+part of cloud_firestore;
+
+/// The outcome of reading one document with [Firestore.getAll].
+class DocumentResult {
+  DocumentResult._(Map<dynamic, dynamic> data, Firestore firestore)
+      : path = data['path'],
+        snapshot = data['error'] == null
+            ? DocumentSnapshot._(
+                data['path'],
+                _asStringKeyedMap(data['data']),
+                SnapshotMetadata._(data['metadata']['hasPendingWrites'],
+                    data['metadata']['isFromCache']),
+                firestore,
+              )
+            : null,
+        errorCode = data['error'] == null ? null : data['error']['code'],
+        errorMessage = data['error'] == null ? null : data['error']['message'];
+
+  /// The path of the document that was read.
+  final String path;
+
+  /// The snapshot of the document, or null if it could not be read.
+  final DocumentSnapshot snapshot;
+
+  /// The Firestore error code, e.g. `UNAVAILABLE`, if the document could not
+  /// be read.
+  final String errorCode;
+
+  final String errorMessage;
+
+  /// Returns `true` if the document could be read. A document that does not
+  /// exist is still read successfully; see [DocumentSnapshot.exists].
+  bool get isSuccessful => errorCode == null;
+}
@@ -35,6 +35,35 @@ class DocumentSnapshot {
   bool get exists => data != null;
 }
 
+/// Decodes a snapshot result that the platform side encoded off the platform
+/// thread with [FirestoreMessageCodec]. Results that were sent as plain maps
+/// or lists are returned unchanged.
+dynamic _decodeSnapshotPayload(dynamic payload) {
+  if (payload is Uint8List) {
+    return const FirestoreMessageCodec().decodeMessage(ByteData.view(
+        payload.buffer, payload.offsetInBytes, payload.lengthInBytes));
+  }
+  return payload;
+}
+
+/// Builds the [DocumentSnapshot]s of a `paths`, `documents` and `metadatas`
+/// payload sent by the platform.
+List<DocumentSnapshot> _parseDocumentList(
+    Map<dynamic, dynamic> data, Firestore firestore) {
+  return List<DocumentSnapshot>.generate(data['documents'].length,
+      (int index) {
+    return DocumentSnapshot._(
+      data['paths'][index],
+      _asStringKeyedMap(data['documents'][index]),
+      SnapshotMetadata._(
+        data['metadatas'][index]['hasPendingWrites'],
+        data['metadatas'][index]['isFromCache'],
+      ),
+      firestore,
+    );
+  });
+}
+
 Map<String, dynamic> _asStringKeyedMap(Map<dynamic, dynamic> map) {
   if (map == null) return null;
   if (map is Map<String, dynamic>) {
@@ -12,8 +12,27 @@ class Firestore {
     if (_initialized) return;
     channel.setMethodCallHandler((MethodCall call) async {
       if (call.method == 'QuerySnapshot') {
-        final QuerySnapshot snapshot = QuerySnapshot._(call.arguments, this);
-        _queryObservers[call.arguments['handle']].add(snapshot);
+        // Listeners of identical queries may share one snapshot message.
+        final List<dynamic> handles =
+            call.arguments['handles'] ?? <dynamic>[call.arguments['handle']];
+        QuerySnapshot sharedSnapshot;
+        for (int handle in handles) {
+          final _QuerySnapshotDeltaState deltaState = _queryDeltaStates[handle];
+          QuerySnapshot snapshot;
+          if (deltaState != null) {
+            snapshot = deltaState.apply(call.arguments, this);
+          } else {
+            snapshot = sharedSnapshot ??= QuerySnapshot._(call.arguments, this);
+          }
+          if (snapshot != null) _queryObservers[handle]?.add(snapshot);
+        }
+      } else if (call.method == 'QuerySnapshotError') {
+        for (int handle in call.arguments['handles']) {
+          _queryObservers[handle]?.addError(PlatformException(
+            code: call.arguments['code'],
+            message: call.arguments['message'],
+          ));
+        }
       } else if (call.method == 'DocumentSnapshot') {
         final DocumentSnapshot snapshot = DocumentSnapshot._(
           call.arguments['path'],
@@ -23,6 +42,16 @@ class Firestore {
           this,
         );
         _documentObservers[call.arguments['handle']].add(snapshot);
+      } else if (call.method == 'DocumentSnapshotError') {
+        _documentObservers[call.arguments['handle']]?.addError(
+          PlatformException(
+            code: call.arguments['code'],
+            message: call.arguments['message'],
+          ),
+        );
+      } else if (call.method == 'BulkWriteProgress') {
+        final BulkWriteProgress progress = BulkWriteProgress._(call.arguments);
+        _bulkWriteProgressHandlers[call.arguments['handle']]?.call(progress);
       } else if (call.method == 'DoTransaction') {
         final int transactionId = call.arguments['transactionId'];
         final Transaction transaction = Transaction(transactionId, this);
@@ -54,6 +83,9 @@ class Firestore {
   static final Map<int, StreamController<QuerySnapshot>> _queryObservers =
       <int, StreamController<QuerySnapshot>>{};
 
+  static final Map<int, _QuerySnapshotDeltaState> _queryDeltaStates =
+      <int, _QuerySnapshotDeltaState>{};
+
   static final Map<int, StreamController<DocumentSnapshot>> _documentObservers =
       <int, StreamController<DocumentSnapshot>>{};
 
@@ -61,6 +93,11 @@ class Firestore {
       <int, TransactionHandler>{};
   static int _transactionHandlerId = 0;
 
+  static const int _bulkWriteChunkSize = 500;
+
+  static final Map<int, void Function(BulkWriteProgress)>
+      _bulkWriteProgressHandlers = <int, void Function(BulkWriteProgress)>{};
+
   @override
   bool operator ==(dynamic o) => o is Firestore && o.app == app;
 
@@ -97,6 +134,35 @@ class Firestore {
   /// preferable when you don’t need to condition your writes on read data.
   WriteBatch batch() => WriteBatch._(this);
 
+  /// Reads all [documents] concurrently with a single platform call.
+  ///
+  /// The results are in the same order as [documents]. Documents that could
+  /// not be read are reported in their [DocumentResult] instead of failing
+  /// the whole call.
+  ///
+  /// Only supported on Android.
+  Future<List<DocumentResult>> getAll(List<DocumentReference> documents,
+      {Source source = Source.serverAndCache}) async {
+    assert(documents != null);
+    assert(source != null);
+    final List<dynamic> results = _decodeSnapshotPayload(
+      await channel.invokeMethod<dynamic>(
+        'Firestore#getAll',
+        <String, dynamic>{
+          'app': app.name,
+          'paths': documents
+              .map<String>((DocumentReference document) => document.path)
+              .toList(),
+          'source': _getSourceString(source),
+        },
+      ),
+    );
+    return results
+        .map<DocumentResult>(
+            (dynamic result) => DocumentResult._(result, this))
+        .toList();
+  }
+
   /// Executes the given TransactionHandler and then attempts to commit the
   /// changes applied within an atomic transaction.
   ///
@@ -135,6 +201,207 @@ class Firestore {
     return result ?? <String, dynamic>{};
   }
 
+  /// Writes all [operations] using as many batches as needed.
+  ///
+  /// Unlike a [WriteBatch], the writes are not atomic as a whole: operations
+  /// are committed in batches of up to 500, with up to [maxConcurrentBatches]
+  /// batches in flight at once. Batches that fail with a transient error are
+  /// retried up to [maxRetries] times, waiting [initialBackoff] before the
+  /// first retry and twice as long before each following one. When a batch
+  /// fails otherwise, the failing operations are isolated and reported in
+  /// [BulkWriteResult.failures] while every other operation is still written.
+  ///
+  /// [operations] is only read as fast as the batches are committed, so it
+  /// may produce more operations than fit in memory at once. [onProgress] is
+  /// called whenever a batch completes.
+  ///
+  /// Only supported on Android.
+  Future<BulkWriteResult> bulkWrite(Stream<BulkWriteOperation> operations,
+      {int maxConcurrentBatches = 4,
+      int maxRetries = 3,
+      Duration initialBackoff = const Duration(milliseconds: 500),
+      void Function(BulkWriteProgress) onProgress}) async {
+    assert(maxConcurrentBatches > 0);
+    assert(maxRetries >= 0);
+    final List<BulkWriteFailure> failures = <BulkWriteFailure>[];
+    final int handle = await channel.invokeMethod<int>(
+      'Firestore#bulkWrite',
+      <String, dynamic>{
+        'app': app.name,
+        'maxConcurrentBatches': maxConcurrentBatches,
+        'maxRetries': maxRetries,
+        'initialBackoffMillis': initialBackoff.inMilliseconds,
+      },
+    );
+    _bulkWriteProgressHandlers[handle] = (BulkWriteProgress progress) {
+      failures.addAll(progress.failures);
+      if (onProgress != null) onProgress(progress);
+    };
+    bool closed = false;
+    try {
+      int startIndex = 0;
+      List<Map<String, dynamic>> chunk = <Map<String, dynamic>>[];
+      Future<void> flush() async {
+        await channel.invokeMethod<void>('BulkWriter#add', <String, dynamic>{
+          'handle': handle,
+          'operations': chunk,
+          'startIndex': startIndex,
+        });
+        startIndex += chunk.length;
+        chunk = <Map<String, dynamic>>[];
+      }
+
+      await for (BulkWriteOperation operation in operations) {
+        chunk.add(operation._data);
+        if (chunk.length == _bulkWriteChunkSize) await flush();
+      }
+      if (chunk.isNotEmpty) await flush();
+      final Map<dynamic, dynamic> totals = await channel
+          .invokeMethod<Map<dynamic, dynamic>>(
+              'BulkWriter#close', <String, dynamic>{'handle': handle});
+      closed = true;
+      return BulkWriteResult._(totals, failures);
+    } finally {
+      _bulkWriteProgressHandlers.remove(handle);
+      if (!closed) {
+        // Releases the platform writer when [operations] or a call failed.
+        await channel.invokeMethod<void>(
+            'BulkWriter#abort', <String, dynamic>{'handle': handle});
+      }
+    }
+  }
+
+  /// Enables or disables the recording of the statistics returned by
+  /// [getStats]. Nothing is recorded until this is called with true, and
+  /// enabling the statistics clears what was recorded before.
+  ///
+  /// Only supported on Android.
+  Future<void> setStatsEnabled(bool enabled) async {
+    assert(enabled != null);
+    await channel.invokeMethod<void>(
+      'Firestore#setStatsEnabled',
+      <String, dynamic>{'enabled': enabled},
+    );
+  }
+
+  /// Returns the statistics recorded on the platform side since they were
+  /// enabled with [setStatsEnabled].
+  ///
+  /// `methods` maps each method name to a latency histogram, the number of
+  /// errors and the sizes of the encoded replies. `messages` holds the sizes
+  /// of the snapshot messages sent to Dart, and `listeners` holds, for each
+  /// query listener, a latency histogram of building and encoding its
+  /// snapshots, their sizes, and the number of snapshots delivered and
+  /// dropped because a newer one replaced them. `queryBuilds` is a histogram
+  /// of the time spent building queries that were not cached. The histogram
+  /// buckets end at the `histogramBoundsMillis`, with one more bucket for
+  /// longer times.
+  ///
+  /// The result also includes the statistics of [getSerializationStats],
+  /// [getQueryCacheStats], [getLifecycleStats] and [getPrewarmStats].
+  ///
+  /// Only supported on Android.
+  Future<Map<String, dynamic>> getStats() {
+    return channel.invokeMapMethod<String, dynamic>('Firestore#getStats');
+  }
+
+  /// Emits the result of [getStats] every [interval] while listened to.
+  ///
+  /// Only supported on Android.
+  Stream<Map<String, dynamic>> statsStream(
+      {Duration interval = const Duration(seconds: 10)}) {
+    assert(interval != null);
+    Timer timer;
+    StreamController<Map<String, dynamic>> controller; // ignore: close_sinks
+    controller = StreamController<Map<String, dynamic>>.broadcast(
+      onListen: () {
+        timer = Timer.periodic(interval, (_) {
+          getStats().then(controller.add, onError: controller.addError);
+        });
+      },
+      onCancel: () {
+        timer.cancel();
+      },
+    );
+    return controller.stream;
+  }
+
+  /// Returns statistics about the conversion and encoding of snapshots on the
+  /// platform side: how many snapshots were serialized, how long that took in
+  /// total and at most (in microseconds), and the current and maximum number
+  /// of snapshots waiting to be serialized.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, dynamic>> getSerializationStats() {
+    return channel.invokeMapMethod<String, dynamic>(
+        'Firestore#getSerializationStats');
+  }
+
+  /// Returns the hit and miss counts of the platform side caches of built
+  /// queries and Firestore instances, which let repeated calls with the same
+  /// query skip rebuilding it.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, dynamic>> getQueryCacheStats() {
+    return channel
+        .invokeMapMethod<String, dynamic>('Firestore#getQueryCacheStats');
+  }
+
+  /// Sets the [queries] that the platform reads from the local cache in the
+  /// background when the app starts next, before any Dart code runs.
+  ///
+  /// This opens the local cache and builds the queries ahead of time, so that
+  /// the first reads of these queries don't have to wait for either. The
+  /// latest [settings] are saved as well and applied before the prewarm.
+  /// Since settings can't change once the local cache is open, [settings]
+  /// that differ from the saved ones fail with a [PlatformException] with code
+  /// `settings_prewarmed` if the prewarm already started Firestore, and only
+  /// apply from the next start. Pass an empty list to stop prewarming.
+  ///
+  /// Collections to prewarm can also be listed, separated by commas, in the
+  /// `io.flutter.plugins.firebase.cloudfirestore.PREWARM_COLLECTIONS`
+  /// metadata of the Android application.
+  ///
+  /// Only supported on Android.
+  Future<void> setPrewarmQueries(List<Query> queries) async {
+    assert(queries != null);
+    await channel.invokeMethod<void>(
+      'Firestore#setPrewarmQueries',
+      <String, dynamic>{
+        'queries': queries
+            .map<Map<String, dynamic>>((Query query) => <String, dynamic>{
+                  'app': query.firestore.app.name,
+                  'path': query._path,
+                  'isCollectionGroup': query._isCollectionGroup,
+                  'parameters': query._parameters,
+                })
+            .toList(),
+      },
+    );
+  }
+
+  /// Returns whether the prewarm of the queries set with [setPrewarmQueries]
+  /// was started and has completed in this run of the app, how many queries
+  /// it ran and how many of them succeeded, how many documents they read from
+  /// the cache, and how long that took in milliseconds.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, dynamic>> getPrewarmStats() {
+    return channel
+        .invokeMapMethod<String, dynamic>('Firestore#getPrewarmStats');
+  }
+
+  /// Returns how many query listeners created with `pauseInBackground` are
+  /// currently paused, how often listeners were paused in total, and the total
+  /// time in milliseconds that they spent paused instead of receiving
+  /// snapshots.
+  ///
+  /// Only supported on Android.
+  Future<Map<String, dynamic>> getLifecycleStats() {
+    return channel
+        .invokeMapMethod<String, dynamic>('Firestore#getLifecycleStats');
+  }
+
   @deprecated
   Future<void> enablePersistence(bool enable) async {
     assert(enable != null);
@@ -145,6 +412,12 @@ class Firestore {
     });
   }
 
+  /// Sets the settings of this Firestore instance, which can't change once it
+  /// is in use.
+  ///
+  /// On Android, if the queries set with [setPrewarmQueries] already started
+  /// Firestore with different settings saved in the previous run, this throws
+  /// a [PlatformException] with code `settings_prewarmed`.
   Future<void> settings(
       {bool persistenceEnabled,
       String host,
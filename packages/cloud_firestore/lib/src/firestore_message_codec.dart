@@ -19,6 +19,21 @@ class FirestoreMessageCodec extends StandardMessageCodec {
   static const int _kTimestamp = 136;
   static const int _kIncrementDouble = 137;
   static const int _kIncrementInteger = 138;
+  static const int _kSnapshotMetadata = 139;
+  static const int _kStringDefinition = 140;
+  static const int _kStringReference = 141;
+  static const int _kDocumentPath = 142;
+  static const int _kTableDocumentReference = 143;
+
+  static const int _kHasPendingWritesFlag = 1;
+  static const int _kIsFromCacheFlag = 1 << 1;
+
+  /// The string tables of the messages being decoded.
+  ///
+  /// The platform side may write repeated strings of a message only once, as
+  /// a definition that appends the string to the table of that message, and
+  /// refer to it by its index afterwards.
+  static final Expando<List<String>> _stringTables = Expando<List<String>>();
 
   static const Map<FieldValueType, int> _kFieldValueCodes =
       <FieldValueType, int>{
@@ -104,6 +119,28 @@ class FirestoreMessageCodec extends StandardMessageCodec {
       case _kIncrementInteger:
         final int value = readValue(buffer);
         return FieldValue.increment(value);
+      case _kSnapshotMetadata:
+        // Written by the platform side as a single byte of flags.
+        final int flags = buffer.getUint8();
+        return <String, bool>{
+          'hasPendingWrites': (flags & _kHasPendingWritesFlag) != 0,
+          'isFromCache': (flags & _kIsFromCacheFlag) != 0,
+        };
+      case _kStringDefinition:
+        final int length = readSize(buffer);
+        final String value = utf8.decoder.convert(buffer.getUint8List(length));
+        (_stringTables[buffer] ??= <String>[]).add(value);
+        return value;
+      case _kStringReference:
+        return _stringTables[buffer][readSize(buffer)];
+      case _kDocumentPath:
+        final String parent = readValue(buffer);
+        final int length = readSize(buffer);
+        return '$parent/${utf8.decoder.convert(buffer.getUint8List(length))}';
+      case _kTableDocumentReference:
+        final String appName = readValue(buffer);
+        final String path = readValue(buffer);
+        return Firestore(app: FirebaseApp(name: appName)).document(path);
       default:
         return super.readValueOfType(type, buffer);
     }
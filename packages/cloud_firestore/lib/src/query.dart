@@ -49,25 +49,78 @@ class Query {
   }
 
   /// Notifies of query results at this location
+  ///
+  /// If the platform stops listening because of an error, for example missing
+  /// permissions, the stream emits a [PlatformException] with its code.
+  ///
+  /// If [deltaSnapshots] is true, the platform sends the full result set only
+  /// once and then only the document changes of each following snapshot. The
+  /// full [QuerySnapshot]s are rebuilt from those changes, and a new full
+  /// result set is requested if a change set is missed. This reduces the
+  /// amount of data sent over the platform channel for large result sets
+  /// where only a few documents change at a time. Delta snapshots are
+  /// currently only supported on Android; other platforms always send the full
+  /// result set.
+  ///
+  /// If [maxEventsPerSecond] is set, snapshots that arrive sooner than
+  /// `1 / maxEventsPerSecond` seconds after the previous one are held back on
+  /// the platform side, and only the latest of them is delivered once that
+  /// time has passed. Its [QuerySnapshot.documentChanges] then combine the
+  /// changes of all snapshots it replaced. [maxEventsPerSecond] must be
+  /// between 1 and 1000. Currently only supported on Android.
+  ///
+  /// If [pauseInBackground] is true, the platform stops listening to the query
+  /// while the app is in the background. When the app returns to the
+  /// foreground, it listens again and sends a single snapshot whose
+  /// [QuerySnapshot.documentChanges] cover everything that changed in the
+  /// meantime. Currently only supported on Android.
+  ///
+  /// If [select] is set, the documents only contain those fields, as with
+  /// [getDocuments].
   // TODO(jackson): Reduce code duplication with [DocumentReference]
-  Stream<QuerySnapshot> snapshots() {
+  Stream<QuerySnapshot> snapshots(
+      {bool deltaSnapshots = false,
+      int maxEventsPerSecond,
+      bool pauseInBackground = false,
+      List<String> select}) {
+    assert(deltaSnapshots != null);
+    assert(pauseInBackground != null);
+    if (maxEventsPerSecond != null) {
+      RangeError.checkValueInInterval(
+          maxEventsPerSecond, 1, 1000, 'maxEventsPerSecond');
+    }
     Future<int> _handle;
     // It's fine to let the StreamController be garbage collected once all the
     // subscribers have cancelled; this analyzer warning is safe to ignore.
     StreamController<QuerySnapshot> controller; // ignore: close_sinks
     controller = StreamController<QuerySnapshot>.broadcast(
       onListen: () {
-        _handle = Firestore.channel.invokeMethod<int>(
-          'Query#addSnapshotListener',
-          <String, dynamic>{
-            'app': firestore.app.name,
-            'path': _path,
-            'isCollectionGroup': _isCollectionGroup,
-            'parameters': _parameters,
-          },
-        ).then<int>((dynamic result) => result);
+        final Map<String, dynamic> arguments = <String, dynamic>{
+          'app': firestore.app.name,
+          'path': _path,
+          'isCollectionGroup': _isCollectionGroup,
+          'parameters': _parameters,
+        };
+        if (deltaSnapshots) arguments['deltaSnapshots'] = true;
+        if (maxEventsPerSecond != null) {
+          arguments['maxEventsPerSecond'] = maxEventsPerSecond;
+        }
+        if (pauseInBackground) arguments['pauseInBackground'] = true;
+        if (select != null) arguments['select'] = select;
+        _handle = Firestore.channel
+            .invokeMethod<int>('Query#addSnapshotListener', arguments)
+            .then<int>((dynamic result) => result);
         _handle.then((int handle) {
           Firestore._queryObservers[handle] = controller;
+          if (deltaSnapshots) {
+            Firestore._queryDeltaStates[handle] =
+                _QuerySnapshotDeltaState(() {
+              Firestore.channel.invokeMethod<void>(
+                'Query#resyncListener',
+                <String, dynamic>{'handle': handle},
+              );
+            });
+          }
         });
       },
       onCancel: () {
@@ -77,6 +130,7 @@ class Query {
             <String, dynamic>{'handle': handle},
           );
           Firestore._queryObservers.remove(handle);
+          Firestore._queryDeltaStates.remove(handle);
         });
       },
     );
@@ -84,21 +138,152 @@ class Query {
   }
 
   /// Fetch the documents for this query
+  ///
+  /// If [resolveReferencesDepth] is greater than 0, the documents referred to
+  /// by [DocumentReference] fields of the results are read as well, all at
+  /// the same time, and returned in [QuerySnapshot.resolvedReferences]. With a
+  /// depth of more than 1, the references of those documents are resolved in
+  /// turn, up to that many levels. Resolving references is currently only
+  /// supported on Android.
+  ///
+  /// If [select] is set, the documents only contain those fields. Nested
+  /// fields are given as dot-separated paths like `address.city`. The full
+  /// documents are still read, but only the selected fields are sent over the
+  /// platform channel. Currently only supported on Android.
   Future<QuerySnapshot> getDocuments(
-      {Source source = Source.serverAndCache}) async {
+      {Source source = Source.serverAndCache,
+      int resolveReferencesDepth = 0,
+      List<String> select}) async {
+    assert(source != null);
+    assert(resolveReferencesDepth != null && resolveReferencesDepth >= 0);
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'app': firestore.app.name,
+      'path': _path,
+      'isCollectionGroup': _isCollectionGroup,
+      'parameters': _parameters,
+      'source': _getSourceString(source),
+    };
+    if (resolveReferencesDepth > 0) {
+      arguments['resolveReferencesDepth'] = resolveReferencesDepth;
+    }
+    if (select != null) arguments['select'] = select;
+    final dynamic data = await Firestore.channel
+        .invokeMethod<dynamic>('Query#getDocuments', arguments);
+    return QuerySnapshot._(_decodeSnapshotPayload(data), firestore);
+  }
+
+  /// Counts the documents matching this query and computes the [sum], [min],
+  /// [max] and [average] of the given numeric fields over them.
+  ///
+  /// The documents are still read by the platform, but only the resulting
+  /// numbers are sent over the platform channel.
+  ///
+  /// Only supported on Android.
+  Future<AggregateResult> aggregate({
+    List<String> sum = const <String>[],
+    List<String> min = const <String>[],
+    List<String> max = const <String>[],
+    List<String> average = const <String>[],
+    Source source = Source.serverAndCache,
+  }) async {
     assert(source != null);
     final Map<dynamic, dynamic> data =
-        await Firestore.channel.invokeMapMethod<String, dynamic>(
-      'Query#getDocuments',
+        await Firestore.channel.invokeMapMethod<dynamic, dynamic>(
+      'Query#aggregate',
       <String, dynamic>{
         'app': firestore.app.name,
         'path': _path,
         'isCollectionGroup': _isCollectionGroup,
         'parameters': _parameters,
         'source': _getSourceString(source),
+        'sum': sum,
+        'min': min,
+        'max': max,
+        'average': average,
       },
     );
-    return QuerySnapshot._(data, firestore);
+    return AggregateResult._(data);
+  }
+
+  /// Fetches the documents for this query like [getDocuments], but delivers
+  /// them in lists of at most [chunkSize] documents.
+  ///
+  /// The next chunk is only converted and sent by the platform once the
+  /// previous one has been delivered and the stream is not paused, so memory
+  /// use stays bounded by the chunk size rather than the result size.
+  /// Cancelling the subscription releases the remaining documents.
+  ///
+  /// Only supported on Android.
+  Stream<List<DocumentSnapshot>> getDocumentsInChunks(
+      {int chunkSize = 500, Source source = Source.serverAndCache}) async* {
+    assert(chunkSize > 0);
+    assert(source != null);
+    final Map<dynamic, dynamic> info =
+        await Firestore.channel.invokeMapMethod<dynamic, dynamic>(
+      'Query#getDocumentsChunked',
+      <String, dynamic>{
+        'app': firestore.app.name,
+        'path': _path,
+        'isCollectionGroup': _isCollectionGroup,
+        'parameters': _parameters,
+        'source': _getSourceString(source),
+      },
+    );
+    final int handle = info['handle'];
+    final int size = info['size'];
+    int offset = 0;
+    try {
+      while (offset < size) {
+        final Map<dynamic, dynamic> data = _decodeSnapshotPayload(
+          await Firestore.channel.invokeMethod<dynamic>(
+            'Query#getDocumentChunk',
+            <String, dynamic>{
+              'handle': handle,
+              'offset': offset,
+              'chunkSize': chunkSize,
+            },
+          ),
+        );
+        offset += chunkSize;
+        yield _parseDocumentList(data, firestore);
+      }
+    } finally {
+      if (offset < size) {
+        await Firestore.channel.invokeMethod<void>(
+          'Query#releaseDocumentChunks',
+          <String, dynamic>{'handle': handle},
+        );
+      }
+    }
+  }
+
+  /// Creates a [QueryCursor] that reads the documents for this query in pages
+  /// of [pageSize] documents. If this query has a [limit], the cursor stops
+  /// after that many documents in total.
+  ///
+  /// The platform starts fetching the first page right away, and fetches each
+  /// following page while the previous one is being shown, so that
+  /// [QueryCursor.next] usually completes without waiting for Firestore.
+  ///
+  /// Only supported on Android.
+  QueryCursor cursor(
+      {int pageSize = 20, Source source = Source.serverAndCache}) {
+    assert(pageSize > 0);
+    assert(source != null);
+    return QueryCursor._(
+      firestore,
+      Firestore.channel.invokeMethod<int>(
+        'Query#createCursor',
+        <String, dynamic>{
+          'app': firestore.app.name,
+          'path': _path,
+          'isCollectionGroup': _isCollectionGroup,
+          'parameters': _parameters,
+          'source': _getSourceString(source),
+          'pageSize': pageSize,
+        },
+      ),
+    );
   }
 
   /// Obtains a CollectionReference corresponding to this query's location.
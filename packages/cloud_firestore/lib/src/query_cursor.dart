@@ -0,0 +1,55 @@
+// Copyright 2019, the Chromium project authors.  Please see the AUTHORS file
+// for details. All rights reserved. Use of this source code is governed by a
+// BSD-style license that can be found in the LICENSE file.
+
+part of cloud_firestore;
+
+/// Reads the documents of a [Query] one page at a time.
+///
+/// Created with [Query.cursor]. Each page starts after the last document of
+/// the previous one. Call [close] once no more pages are needed.
+class QueryCursor {
+  QueryCursor._(this.firestore, this._handle);
+
+  final Firestore firestore;
+
+  final Future<int> _handle;
+
+  Future<void> _previousPage = Future<void>.value();
+
+  /// Whether there may be more documents after the pages read so far.
+  bool get hasMore => _hasMore;
+  bool _hasMore = true;
+
+  /// Reads the next page of documents.
+  ///
+  /// Returns an empty list once there are no more documents. Calls made
+  /// before the previous page completes are queued. If a page fails, the
+  /// following call reads it again.
+  Future<List<DocumentSnapshot>> next() {
+    final Future<List<DocumentSnapshot>> page =
+        _previousPage.then((_) => _readPage());
+    _previousPage = page.then<void>((_) {}, onError: (dynamic error) {});
+    return page;
+  }
+
+  Future<List<DocumentSnapshot>> _readPage() async {
+    if (!_hasMore) return <DocumentSnapshot>[];
+    final Map<dynamic, dynamic> data = _decodeSnapshotPayload(
+      await Firestore.channel.invokeMethod<dynamic>(
+        'QueryCursor#next',
+        <String, dynamic>{'handle': await _handle},
+      ),
+    );
+    _hasMore = data['hasMore'];
+    return _parseDocumentList(data, firestore);
+  }
+
+  /// Releases the cursor on the platform side.
+  Future<void> close() async {
+    await Firestore.channel.invokeMethod<void>(
+      'QueryCursor#close',
+      <String, dynamic>{'handle': await _handle},
+    );
+  }
+}
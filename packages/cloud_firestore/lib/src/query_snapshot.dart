@@ -25,7 +25,13 @@ class QuerySnapshot {
             data['documentChanges'][index],
             _firestore,
           );
-        });
+        }),
+        resolvedReferences =
+            _parseResolvedReferences(data['resolvedReferences'], _firestore);
+
+  QuerySnapshot._withDocuments(
+      this.documents, this.documentChanges, this._firestore)
+      : resolvedReferences = const <String, DocumentSnapshot>{};
 
   /// Gets a list of all the documents included in this snapshot
   final List<DocumentSnapshot> documents;
@@ -34,5 +40,75 @@ class QuerySnapshot {
   /// is the first snapshot, all documents will be in the list as Added changes.
   final List<DocumentChange> documentChanges;
 
+  /// The documents referred to by [DocumentReference] fields of [documents],
+  /// by path, if they were requested with `resolveReferencesDepth` in
+  /// [Query.getDocuments]. Documents that could not be read are missing.
+  final Map<String, DocumentSnapshot> resolvedReferences;
+
   final Firestore _firestore;
+
+  static Map<String, DocumentSnapshot> _parseResolvedReferences(
+      Map<dynamic, dynamic> data, Firestore firestore) {
+    if (data == null) return const <String, DocumentSnapshot>{};
+    return data.map<String, DocumentSnapshot>((dynamic path, dynamic snapshot) {
+      return MapEntry<String, DocumentSnapshot>(
+        path,
+        DocumentSnapshot._(
+          snapshot['path'],
+          _asStringKeyedMap(snapshot['data']),
+          SnapshotMetadata._(snapshot['metadata']['hasPendingWrites'],
+              snapshot['metadata']['isFromCache']),
+          firestore,
+        ),
+      );
+    });
+  }
+}
+
+/// Rebuilds full [QuerySnapshot]s for a listener that receives delta
+/// snapshots, i.e. the full result set once and only document changes
+/// afterwards.
+class _QuerySnapshotDeltaState {
+  _QuerySnapshotDeltaState(this._onGap);
+
+  /// Called when a delta cannot be applied and a full snapshot is needed.
+  final void Function() _onGap;
+
+  List<DocumentSnapshot> _documents;
+  int _sequence;
+  bool _awaitingResync = false;
+
+  /// Returns the snapshot described by [data], or null if [data] had to be
+  /// dropped because a previous message is missing.
+  QuerySnapshot apply(Map<dynamic, dynamic> data, Firestore firestore) {
+    final int sequence = data['sequence'];
+    if (data['isDelta'] != true) {
+      final QuerySnapshot snapshot = QuerySnapshot._(data, firestore);
+      _documents = snapshot.documents;
+      _sequence = sequence;
+      _awaitingResync = false;
+      return snapshot;
+    }
+    if (_awaitingResync) return null;
+    if (_documents == null || sequence != _sequence + 1) {
+      _awaitingResync = true;
+      _onGap();
+      return null;
+    }
+    final List<DocumentChange> documentChanges = List<DocumentChange>.generate(
+      data['documentChanges'].length,
+      (int index) =>
+          DocumentChange._(data['documentChanges'][index], firestore),
+    );
+    final List<DocumentSnapshot> documents =
+        List<DocumentSnapshot>.from(_documents);
+    for (DocumentChange change in documentChanges) {
+      if (change.oldIndex != -1) documents.removeAt(change.oldIndex);
+      if (change.newIndex != -1)
+        documents.insert(change.newIndex, change.document);
+    }
+    _documents = documents;
+    _sequence = sequence;
+    return QuerySnapshot._withDocuments(documents, documentChanges, firestore);
+  }
 }
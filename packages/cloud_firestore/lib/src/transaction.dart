@@ -6,6 +6,42 @@ part of cloud_firestore;
 
 typedef Future<dynamic> TransactionHandler(Transaction transaction);
 
+/// A read or write passed to [Transaction.batch].
+class TransactionOperation {
+  TransactionOperation._(this._type, this._documentReference, [this._data]);
+
+  /// Reads the document referenced by [documentReference].
+  TransactionOperation.get(DocumentReference documentReference)
+      : this._('get', documentReference);
+
+  /// Writes [data] to the document referenced by [documentReference].
+  TransactionOperation.set(
+      DocumentReference documentReference, Map<String, dynamic> data)
+      : this._('set', documentReference, data);
+
+  /// Updates fields in the document referenced by [documentReference].
+  TransactionOperation.update(
+      DocumentReference documentReference, Map<String, dynamic> data)
+      : this._('update', documentReference, data);
+
+  /// Deletes the document referenced by [documentReference].
+  TransactionOperation.delete(DocumentReference documentReference)
+      : this._('delete', documentReference);
+
+  final String _type;
+  final DocumentReference _documentReference;
+  final Map<String, dynamic> _data;
+
+  Map<String, dynamic> _toMap() {
+    final Map<String, dynamic> operation = <String, dynamic>{
+      'type': _type,
+      'path': _documentReference.path,
+    };
+    if (_data != null) operation['data'] = _data;
+    return operation;
+  }
+}
+
 class Transaction {
   @visibleForTesting
   Transaction(this._transactionId, this._firestore);
@@ -41,6 +77,44 @@ class Transaction {
     }
   }
 
+  /// Applies all [operations] in order with a single platform call.
+  ///
+  /// Returns one entry per operation: the snapshot of the document for
+  /// [TransactionOperation.get] and null for writes. As with the individual
+  /// methods, all reads must come before any writes. This way a
+  /// read-modify-write transaction needs one call for its reads and one for
+  /// its writes instead of one per document.
+  ///
+  /// Only supported on Android.
+  Future<List<DocumentSnapshot>> batch(List<TransactionOperation> operations) {
+    final Future<List<DocumentSnapshot>> result = _batch(operations);
+    _pendingResults.add(result);
+    return result;
+  }
+
+  Future<List<DocumentSnapshot>> _batch(
+      List<TransactionOperation> operations) async {
+    final List<dynamic> results = await Firestore.channel
+        .invokeListMethod<dynamic>('Transaction#batch', <String, dynamic>{
+      'app': _firestore.app.name,
+      'transactionId': _transactionId,
+      'operations': operations
+          .map<Map<String, dynamic>>(
+              (TransactionOperation operation) => operation._toMap())
+          .toList(),
+    });
+    return List<DocumentSnapshot>.generate(results.length, (int index) {
+      final Map<dynamic, dynamic> result = results[index];
+      if (result == null) return null;
+      return DocumentSnapshot._(
+          result['path'],
+          result['data']?.cast<String, dynamic>(),
+          SnapshotMetadata._(result['metadata']['hasPendingWrites'],
+              result['metadata']['isFromCache']),
+          _firestore);
+    });
+  }
+
   /// Deletes the document referred to by the provided [documentReference].
   ///
   /// Awaiting the returned [Future] is optional and will be done automatically
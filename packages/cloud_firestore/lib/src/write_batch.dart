@@ -7,17 +7,16 @@ part of cloud_firestore;
 /// A [WriteBatch] is a series of write operations to be performed as one unit.
 ///
 /// Operations done on a [WriteBatch] do not take effect until you [commit].
+/// They are collected locally and sent to the platform in a single message
+/// when the batch is committed.
 ///
 /// Once committed, no further operations can be performed on the [WriteBatch],
 /// nor can it be committed again.
 class WriteBatch {
-  WriteBatch._(this._firestore)
-      : _handle = Firestore.channel.invokeMethod<dynamic>(
-            'WriteBatch#create', <String, dynamic>{'app': _firestore.app.name});
+  WriteBatch._(this._firestore);
 
   final Firestore _firestore;
-  Future<dynamic> _handle;
-  final List<Future<dynamic>> _actions = <Future<dynamic>>[];
+  final List<Map<String, dynamic>> _operations = <Map<String, dynamic>>[];
 
   /// Indicator to whether or not this [WriteBatch] has been committed.
   bool _committed = false;
@@ -28,9 +27,13 @@ class WriteBatch {
   Future<void> commit() async {
     if (!_committed) {
       _committed = true;
-      await Future.wait<dynamic>(_actions);
       await Firestore.channel.invokeMethod<void>(
-          'WriteBatch#commit', <String, dynamic>{'handle': await _handle});
+        'WriteBatch#commitOps',
+        <String, dynamic>{
+          'app': _firestore.app.name,
+          'operations': _operations,
+        },
+      );
     } else {
       throw StateError("This batch has already been committed.");
     }
@@ -39,17 +42,9 @@ class WriteBatch {
   /// Deletes the document referred to by [document].
   void delete(DocumentReference document) {
     if (!_committed) {
-      _handle.then((dynamic handle) {
-        _actions.add(
-          Firestore.channel.invokeMethod<void>(
-            'WriteBatch#delete',
-            <String, dynamic>{
-              'app': _firestore.app.name,
-              'handle': handle,
-              'path': document.path,
-            },
-          ),
-        );
+      _operations.add(<String, dynamic>{
+        'type': 'delete',
+        'path': document.path,
       });
     } else {
       throw StateError(
@@ -66,19 +61,11 @@ class WriteBatch {
   void setData(DocumentReference document, Map<String, dynamic> data,
       {bool merge = false}) {
     if (!_committed) {
-      _handle.then((dynamic handle) {
-        _actions.add(
-          Firestore.channel.invokeMethod<void>(
-            'WriteBatch#setData',
-            <String, dynamic>{
-              'app': _firestore.app.name,
-              'handle': handle,
-              'path': document.path,
-              'data': data,
-              'options': <String, bool>{'merge': merge},
-            },
-          ),
-        );
+      _operations.add(<String, dynamic>{
+        'type': 'set',
+        'path': document.path,
+        'data': data,
+        'options': <String, bool>{'merge': merge},
       });
     } else {
       throw StateError(
@@ -91,18 +78,10 @@ class WriteBatch {
   /// If the document does not exist, the operation will fail.
   void updateData(DocumentReference document, Map<String, dynamic> data) {
     if (!_committed) {
-      _handle.then((dynamic handle) {
-        _actions.add(
-          Firestore.channel.invokeMethod<void>(
-            'WriteBatch#updateData',
-            <String, dynamic>{
-              'app': _firestore.app.name,
-              'handle': handle,
-              'path': document.path,
-              'data': data,
-            },
-          ),
-        );
+      _operations.add(<String, dynamic>{
+        'type': 'update',
+        'path': document.path,
+        'data': data,
       });
     } else {
       throw StateError(
@@ -72,7 +72,9 @@ void main() {
                         'metadata': kMockSnapshotMetadata,
                       },
                     ],
-                  }),
+                  }..addAll(methodCall.arguments['deltaSnapshots'] == true
+                      ? <String, dynamic>{'sequence': 0, 'isDelta': false}
+                      : <String, dynamic>{})),
                 ),
                 (_) {},
               );
@@ -101,7 +103,7 @@ void main() {
             });
             return handle;
           case 'Query#getDocuments':
-            return <String, dynamic>{
+            final Map<String, dynamic> snapshot = <String, dynamic>{
               'paths': <String>["${methodCall.arguments['path']}/0"],
               'documents': <dynamic>[kMockDocumentSnapshotData],
               'metadatas': <Map<String, dynamic>>[kMockSnapshotMetadata],
@@ -115,6 +117,73 @@ void main() {
                 },
               ],
             };
+            if (methodCall.arguments['resolveReferencesDepth'] != null) {
+              snapshot['resolvedReferences'] = <String, dynamic>{
+                'bar/1': <String, dynamic>{
+                  'path': 'bar/1',
+                  'data': <String, dynamic>{'name': 'one'},
+                  'metadata': kMockSnapshotMetadata,
+                },
+              };
+            }
+            return snapshot;
+          case 'Query#aggregate':
+            return <String, dynamic>{
+              'count': 3,
+              'sum': <String, dynamic>{'score': 12},
+              'min': <String, dynamic>{'score': 1},
+              'max': <String, dynamic>{'score': 7.5},
+              'average': <String, dynamic>{'score': 4.0, 'missing': null},
+            };
+          case 'Query#getDocumentsChunked':
+            return <String, dynamic>{'handle': 3, 'size': 5};
+          case 'Query#getDocumentChunk':
+            final int offset = methodCall.arguments['offset'];
+            final int end = offset + methodCall.arguments['chunkSize'] > 5
+                ? 5
+                : offset + methodCall.arguments['chunkSize'];
+            return <String, dynamic>{
+              'paths': List<String>.generate(
+                  end - offset, (int i) => 'foo/${offset + i}'),
+              'documents': List<dynamic>.filled(
+                  end - offset, kMockDocumentSnapshotData),
+              'metadatas': List<dynamic>.filled(
+                  end - offset, kMockSnapshotMetadata),
+            };
+          case 'Query#createCursor':
+            return 4;
+          case 'QueryCursor#next':
+            // Pages of two documents out of three.
+            final int page = log
+                    .where((MethodCall call) =>
+                        call.method == 'QueryCursor#next')
+                    .length -
+                1;
+            final int size = page == 0 ? 2 : 1;
+            return <String, dynamic>{
+              'paths': List<String>.generate(
+                  size, (int i) => 'foo/${page * 2 + i}'),
+              'documents':
+                  List<dynamic>.filled(size, kMockDocumentSnapshotData),
+              'metadatas': List<dynamic>.filled(size, kMockSnapshotMetadata),
+              'hasMore': page == 0,
+            };
+          case 'Firestore#getAll':
+            return methodCall.arguments['paths']
+                .map<dynamic>((dynamic path) => path == 'foo/missing'
+                    ? <String, dynamic>{
+                        'path': path,
+                        'error': <String, dynamic>{
+                          'code': 'UNAVAILABLE',
+                          'message': 'offline',
+                        },
+                      }
+                    : <String, dynamic>{
+                        'path': path,
+                        'data': kMockDocumentSnapshotData,
+                        'metadata': kMockSnapshotMetadata,
+                      })
+                .toList();
           case 'DocumentReference#setData':
             return true;
           case 'DocumentReference#get':
@@ -130,6 +199,16 @@ void main() {
                 'data': null,
                 'metadata': kMockSnapshotMetadata,
               };
+            } else if (methodCall.arguments['path'] == 'foo/encoded') {
+              // Snapshots may be encoded on the platform side already.
+              final ByteData encoded =
+                  const FirestoreMessageCodec().encodeMessage(<String, dynamic>{
+                'path': 'foo/encoded',
+                'data': <String, dynamic>{'key1': 'val1'},
+                'metadata': kMockSnapshotMetadata,
+              });
+              return encoded.buffer
+                  .asUint8List(encoded.offsetInBytes, encoded.lengthInBytes);
             }
             throw PlatformException(code: 'UNKNOWN_PATH');
           case 'Firestore#runTransaction':
@@ -155,8 +234,49 @@ void main() {
             return null;
           case 'Transaction#delete':
             return null;
+          case 'Transaction#batch':
+            return methodCall.arguments['operations']
+                .map<dynamic>((dynamic operation) => operation['type'] == 'get'
+                    ? <String, dynamic>{
+                        'path': operation['path'],
+                        'data': <String, dynamic>{'key1': 'val1'},
+                        'metadata': kMockSnapshotMetadata,
+                      }
+                    : null)
+                .toList();
           case 'WriteBatch#create':
             return 1;
+          case 'Firestore#bulkWrite':
+            return 7;
+          case 'BulkWriter#close':
+            // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+            // https://github.com/flutter/flutter/issues/33446
+            // ignore: deprecated_member_use
+            await BinaryMessages.handlePlatformMessage(
+              Firestore.channel.name,
+              Firestore.channel.codec.encodeMethodCall(
+                MethodCall('BulkWriteProgress', <String, dynamic>{
+                  'handle': 7,
+                  'committed': 501,
+                  'failed': 1,
+                  'retries': 2,
+                  'failures': <dynamic>[
+                    <String, dynamic>{
+                      'index': 3,
+                      'path': 'foo/3',
+                      'code': 'NOT_FOUND',
+                      'message': 'No document to update',
+                    },
+                  ],
+                }),
+              ),
+              (_) {},
+            );
+            return <String, dynamic>{
+              'committed': 501,
+              'failed': 1,
+              'retries': 2,
+            };
           default:
             return null;
         }
@@ -170,6 +290,83 @@ void main() {
       expect(firestore, equals(Firestore(app: app)));
     });
 
+    test('getAll', () async {
+      final List<DocumentResult> results = await firestore.getAll(
+        <DocumentReference>[
+          collectionReference.document('bar'),
+          collectionReference.document('missing'),
+        ],
+        source: Source.cache,
+      );
+      expect(log, <Matcher>[
+        isMethodCall(
+          'Firestore#getAll',
+          arguments: <String, dynamic>{
+            'app': app.name,
+            'paths': <String>['foo/bar', 'foo/missing'],
+            'source': 'cache',
+          },
+        ),
+      ]);
+      expect(results, hasLength(2));
+      expect(results[0].isSuccessful, isTrue);
+      expect(results[0].snapshot.reference.path, 'foo/bar');
+      expect(results[0].snapshot.data, kMockDocumentSnapshotData);
+      expect(results[1].isSuccessful, isFalse);
+      expect(results[1].snapshot, isNull);
+      expect(results[1].path, 'foo/missing');
+      expect(results[1].errorCode, 'UNAVAILABLE');
+      expect(results[1].errorMessage, 'offline');
+    });
+
+    test('setPrewarmQueries', () async {
+      await firestore.setPrewarmQueries(<Query>[
+        collectionReference,
+        collectionReference.where('bar', isEqualTo: 1),
+      ]);
+      expect(log, <Matcher>[
+        isMethodCall(
+          'Firestore#setPrewarmQueries',
+          arguments: <String, dynamic>{
+            'queries': <Map<String, dynamic>>[
+              <String, dynamic>{
+                'app': app.name,
+                'path': 'foo',
+                'isCollectionGroup': false,
+                'parameters': <String, dynamic>{
+                  'where': <List<dynamic>>[],
+                  'orderBy': <List<dynamic>>[],
+                },
+              },
+              <String, dynamic>{
+                'app': app.name,
+                'path': 'foo',
+                'isCollectionGroup': false,
+                'parameters': <String, dynamic>{
+                  'where': <List<dynamic>>[
+                    <dynamic>['bar', '==', 1],
+                  ],
+                  'orderBy': <List<dynamic>>[],
+                },
+              },
+            ],
+          },
+        ),
+      ]);
+    });
+
+    test('stats', () async {
+      await firestore.setStatsEnabled(true);
+      await firestore.getStats();
+      expect(log, <Matcher>[
+        isMethodCall(
+          'Firestore#setStatsEnabled',
+          arguments: <String, dynamic>{'enabled': true},
+        ),
+        isMethodCall('Firestore#getStats', arguments: null),
+      ]);
+    });
+
     test('settings', () async {
       final FirebaseApp app = const FirebaseApp(name: "testApp2");
       final Firestore firestoreWithSettings = Firestore(app: app);
@@ -208,6 +405,49 @@ void main() {
         expect(result, equals(<String, dynamic>{'1': 3}));
       });
 
+      test('batch', () async {
+        final DocumentReference first = firestore.document('foo/first');
+        final DocumentReference second = firestore.document('foo/second');
+        final List<DocumentSnapshot> snapshots =
+            await transaction.batch(<TransactionOperation>[
+          TransactionOperation.get(first),
+          TransactionOperation.get(second),
+        ]);
+        expect(
+          snapshots.map((DocumentSnapshot snapshot) => snapshot.documentID),
+          <String>['first', 'second'],
+        );
+        expect(snapshots[0].data, <String, dynamic>{'key1': 'val1'});
+        final List<DocumentSnapshot> writes =
+            await transaction.batch(<TransactionOperation>[
+          TransactionOperation.update(first, <String, dynamic>{'key1': 'val2'}),
+          TransactionOperation.delete(second),
+        ]);
+        expect(writes, <DocumentSnapshot>[null, null]);
+        expect(log, <Matcher>[
+          isMethodCall('Transaction#batch', arguments: <String, dynamic>{
+            'app': app.name,
+            'transactionId': 0,
+            'operations': <Map<String, dynamic>>[
+              <String, dynamic>{'type': 'get', 'path': 'foo/first'},
+              <String, dynamic>{'type': 'get', 'path': 'foo/second'},
+            ],
+          }),
+          isMethodCall('Transaction#batch', arguments: <String, dynamic>{
+            'app': app.name,
+            'transactionId': 0,
+            'operations': <Map<String, dynamic>>[
+              <String, dynamic>{
+                'type': 'update',
+                'path': 'foo/first',
+                'data': <String, dynamic>{'key1': 'val2'},
+              },
+              <String, dynamic>{'type': 'delete', 'path': 'foo/second'},
+            ],
+          }),
+        ]);
+      });
+
       test('get', () async {
         final DocumentReference documentReference =
             firestore.document('foo/bar');
@@ -355,6 +595,217 @@ void main() {
           ),
         ]);
       });
+      test('listen with maxEventsPerSecond', () async {
+        final QuerySnapshot snapshot = await collectionReference
+            .snapshots(maxEventsPerSecond: 10)
+            .first;
+        expect(snapshot.documents[0].documentID, equals('0'));
+        await Future<void>.delayed(Duration.zero);
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#addSnapshotListener',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'isCollectionGroup': false,
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+              'maxEventsPerSecond': 10,
+            },
+          ),
+          isMethodCall(
+            'Query#removeListener',
+            arguments: <String, dynamic>{'handle': 0},
+          ),
+        ]);
+      });
+      test('listen with pauseInBackground', () async {
+        final QuerySnapshot snapshot = await collectionReference
+            .snapshots(pauseInBackground: true)
+            .first;
+        expect(snapshot.documents[0].documentID, equals('0'));
+        await Future<void>.delayed(Duration.zero);
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#addSnapshotListener',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'isCollectionGroup': false,
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+              'pauseInBackground': true,
+            },
+          ),
+          isMethodCall(
+            'Query#removeListener',
+            arguments: <String, dynamic>{'handle': 0},
+          ),
+        ]);
+      });
+      test('listen with deltaSnapshots', () async {
+        void sendDelta(int sequence, Map<String, dynamic> change) {
+          // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+          // https://github.com/flutter/flutter/issues/33446
+          // ignore: deprecated_member_use
+          BinaryMessages.handlePlatformMessage(
+            Firestore.channel.name,
+            Firestore.channel.codec.encodeMethodCall(
+              MethodCall('QuerySnapshot', <String, dynamic>{
+                'handle': 0,
+                'sequence': sequence,
+                'isDelta': true,
+                'documentChanges': <dynamic>[change],
+              }),
+            ),
+            (_) {},
+          );
+        }
+
+        final List<QuerySnapshot> snapshots = <QuerySnapshot>[];
+        final StreamSubscription<QuerySnapshot> subscription =
+            collectionReference
+                .snapshots(deltaSnapshots: true)
+                .listen(snapshots.add);
+        await Future<void>.delayed(Duration.zero);
+        await Future<void>.delayed(Duration.zero);
+        sendDelta(1, <String, dynamic>{
+          'oldIndex': -1,
+          'newIndex': 0,
+          'type': 'DocumentChangeType.added',
+          'path': 'foo/1',
+          'document': <String, dynamic>{'1': 3},
+          'metadata': kMockSnapshotMetadata,
+        });
+        await Future<void>.delayed(Duration.zero);
+        sendDelta(2, <String, dynamic>{
+          'oldIndex': 1,
+          'newIndex': -1,
+          'type': 'DocumentChangeType.removed',
+          'path': 'foo/0',
+          'document': kMockDocumentSnapshotData,
+          'metadata': kMockSnapshotMetadata,
+        });
+        await Future<void>.delayed(Duration.zero);
+        // Sequence number 3 is missing, so this delta is dropped.
+        sendDelta(4, <String, dynamic>{
+          'oldIndex': 0,
+          'newIndex': -1,
+          'type': 'DocumentChangeType.removed',
+          'path': 'foo/1',
+          'document': <String, dynamic>{'1': 3},
+          'metadata': kMockSnapshotMetadata,
+        });
+        await Future<void>.delayed(Duration.zero);
+        await subscription.cancel();
+        await Future<void>.delayed(Duration.zero);
+
+        expect(snapshots, hasLength(3));
+        expect(
+          snapshots[1].documents.map((DocumentSnapshot d) => d.documentID),
+          <String>['1', '0'],
+        );
+        expect(snapshots[1].documentChanges, hasLength(1));
+        expect(
+          snapshots[2].documents.map((DocumentSnapshot d) => d.documentID),
+          <String>['1'],
+        );
+        expect(snapshots[2].documents[0].data, <String, dynamic>{'1': 3});
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#addSnapshotListener',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'isCollectionGroup': false,
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+              'deltaSnapshots': true,
+            },
+          ),
+          isMethodCall(
+            'Query#resyncListener',
+            arguments: <String, dynamic>{'handle': 0},
+          ),
+          isMethodCall(
+            'Query#removeListener',
+            arguments: <String, dynamic>{'handle': 0},
+          ),
+        ]);
+      });
+      test('listen with shared snapshot', () async {
+        final List<QuerySnapshot> first = <QuerySnapshot>[];
+        final List<QuerySnapshot> second = <QuerySnapshot>[];
+        final StreamSubscription<QuerySnapshot> firstSubscription =
+            collectionReference.snapshots().listen(first.add);
+        final StreamSubscription<QuerySnapshot> secondSubscription =
+            collectionReference.snapshots().listen(second.add);
+        await Future<void>.delayed(Duration.zero);
+        await Future<void>.delayed(Duration.zero);
+        // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+        // https://github.com/flutter/flutter/issues/33446
+        // ignore: deprecated_member_use
+        await BinaryMessages.handlePlatformMessage(
+          Firestore.channel.name,
+          Firestore.channel.codec.encodeMethodCall(
+            MethodCall('QuerySnapshot', <String, dynamic>{
+              'handles': <int>[0, 1],
+              'paths': <String>[],
+              'documents': <dynamic>[],
+              'metadatas': <dynamic>[],
+              'documentChanges': <dynamic>[],
+            }),
+          ),
+          (_) {},
+        );
+        await firstSubscription.cancel();
+        await secondSubscription.cancel();
+        expect(first, hasLength(2));
+        expect(second, hasLength(2));
+        expect(first[1].documents, isEmpty);
+        expect(identical(first[1], second[1]), isTrue);
+      });
+      test('listen with shared error', () async {
+        final List<dynamic> firstErrors = <dynamic>[];
+        final List<dynamic> secondErrors = <dynamic>[];
+        final StreamSubscription<QuerySnapshot> firstSubscription =
+            collectionReference
+                .snapshots()
+                .listen((_) {}, onError: firstErrors.add);
+        final StreamSubscription<QuerySnapshot> secondSubscription =
+            collectionReference
+                .snapshots()
+                .listen((_) {}, onError: secondErrors.add);
+        await Future<void>.delayed(Duration.zero);
+        await Future<void>.delayed(Duration.zero);
+        // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+        // https://github.com/flutter/flutter/issues/33446
+        // ignore: deprecated_member_use
+        await BinaryMessages.handlePlatformMessage(
+          Firestore.channel.name,
+          Firestore.channel.codec.encodeMethodCall(
+            const MethodCall('QuerySnapshotError', <String, dynamic>{
+              'handles': <int>[0, 1],
+              'code': 'PERMISSION_DENIED',
+              'message': 'Missing or insufficient permissions.',
+            }),
+          ),
+          (_) {},
+        );
+        await firstSubscription.cancel();
+        await secondSubscription.cancel();
+        expect(firstErrors, hasLength(1));
+        expect(secondErrors, hasLength(1));
+        final PlatformException error = firstErrors.single;
+        expect(error.code, 'PERMISSION_DENIED');
+        expect(error.message, 'Missing or insufficient permissions.');
+      });
       test('where', () async {
         final StreamSubscription<QuerySnapshot> subscription =
             collectionReference
@@ -479,6 +930,33 @@ void main() {
           ],
         );
       });
+      test('listen with error', () async {
+        final List<dynamic> errors = <dynamic>[];
+        final StreamSubscription<DocumentSnapshot> subscription = firestore
+            .document('path/to/foo')
+            .snapshots()
+            .listen((_) {}, onError: errors.add);
+        await Future<void>.delayed(Duration.zero);
+        await Future<void>.delayed(Duration.zero);
+        // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+        // https://github.com/flutter/flutter/issues/33446
+        // ignore: deprecated_member_use
+        await BinaryMessages.handlePlatformMessage(
+          Firestore.channel.name,
+          Firestore.channel.codec.encodeMethodCall(
+            const MethodCall('DocumentSnapshotError', <String, dynamic>{
+              'handle': 0,
+              'code': 'PERMISSION_DENIED',
+              'message': 'Missing or insufficient permissions.',
+            }),
+          ),
+          (_) {},
+        );
+        await subscription.cancel();
+        expect(errors, hasLength(1));
+        final PlatformException error = errors.single;
+        expect(error.code, 'PERMISSION_DENIED');
+      });
       test('set', () async {
         await collectionReference
             .document('bar')
@@ -598,6 +1076,13 @@ void main() {
           expect(e.code, equals('UNKNOWN_PATH'));
         }
       });
+      test('get encoded snapshot', () async {
+        final DocumentSnapshot snapshot =
+            await collectionReference.document('encoded').get();
+        expect(snapshot.reference.path, equals('foo/encoded'));
+        expect(snapshot.data, equals(<String, dynamic>{'key1': 'val1'}));
+        expect(snapshot.metadata.isFromCache, isFalse);
+      });
       test('collection', () async {
         final CollectionReference colRef =
             collectionReference.document('bar').collection('baz');
@@ -611,6 +1096,30 @@ void main() {
     });
 
     group('Query', () {
+      test('getDocuments with resolveReferencesDepth', () async {
+        QuerySnapshot snapshot = await collectionReference.getDocuments();
+        expect(log.single.arguments.containsKey('resolveReferencesDepth'),
+            isFalse);
+        expect(snapshot.resolvedReferences, isEmpty);
+
+        snapshot =
+            await collectionReference.getDocuments(resolveReferencesDepth: 2);
+        expect(log.last.arguments['resolveReferencesDepth'], 2);
+        final DocumentSnapshot referenced =
+            snapshot.resolvedReferences['bar/1'];
+        expect(referenced.reference.path, 'bar/1');
+        expect(referenced.data, <String, dynamic>{'name': 'one'});
+      });
+      test('select', () async {
+        await collectionReference.getDocuments();
+        await collectionReference
+            .getDocuments(select: <String>['name', 'address.city']);
+        await collectionReference.document('bar').get(select: <String>['name']);
+        expect(log[0].arguments.containsKey('select'), isFalse);
+        expect(log[1].arguments['select'], <String>['name', 'address.city']);
+        expect(log[2].method, 'DocumentReference#get');
+        expect(log[2].arguments['select'], <String>['name']);
+      });
       test('getDocumentsFromCollection', () async {
         QuerySnapshot snapshot =
             await collectionReference.getDocuments(source: Source.server);
@@ -950,6 +1459,143 @@ void main() {
       });
     });
 
+    group('aggregate', () {
+      test('sends fields and decodes result', () async {
+        final AggregateResult result = await collectionReference
+            .where('active', isEqualTo: true)
+            .aggregate(
+          sum: <String>['score'],
+          min: <String>['score'],
+          max: <String>['score'],
+          average: <String>['score', 'missing'],
+          source: Source.cache,
+        );
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#aggregate',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'isCollectionGroup': false,
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[
+                  <dynamic>['active', '==', true],
+                ],
+                'orderBy': <List<dynamic>>[],
+              },
+              'source': 'cache',
+              'sum': <String>['score'],
+              'min': <String>['score'],
+              'max': <String>['score'],
+              'average': <String>['score', 'missing'],
+            },
+          ),
+        ]);
+        expect(result.count, 3);
+        expect(result.sum['score'], 12);
+        expect(result.min['score'], 1);
+        expect(result.max['score'], 7.5);
+        expect(result.average['score'], 4.0);
+        expect(result.average['missing'], isNull);
+      });
+    });
+
+    group('getDocumentsInChunks', () {
+      test('fetches chunks until all documents are delivered', () async {
+        final List<List<DocumentSnapshot>> chunks = await collectionReference
+            .getDocumentsInChunks(chunkSize: 2)
+            .toList();
+        expect(
+          chunks.map((List<DocumentSnapshot> chunk) => chunk
+              .map((DocumentSnapshot document) => document.documentID)
+              .toList()),
+          <List<String>>[
+            <String>['0', '1'],
+            <String>['2', '3'],
+            <String>['4'],
+          ],
+        );
+        expect(chunks.first.first.data, kMockDocumentSnapshotData);
+        expect(
+          log.map((MethodCall call) => call.method),
+          <String>[
+            'Query#getDocumentsChunked',
+            'Query#getDocumentChunk',
+            'Query#getDocumentChunk',
+            'Query#getDocumentChunk',
+          ],
+        );
+        expect(log[0].arguments['source'], 'default');
+        expect(
+          log[2].arguments,
+          <String, dynamic>{'handle': 3, 'offset': 2, 'chunkSize': 2},
+        );
+      });
+      test('releases remaining documents on cancel', () async {
+        final List<DocumentSnapshot> chunk = await collectionReference
+            .getDocumentsInChunks(chunkSize: 2)
+            .first;
+        expect(chunk, hasLength(2));
+        expect(
+          log.map((MethodCall call) => call.method),
+          <String>[
+            'Query#getDocumentsChunked',
+            'Query#getDocumentChunk',
+            'Query#releaseDocumentChunks',
+          ],
+        );
+        expect(log.last.arguments, <String, dynamic>{'handle': 3});
+      });
+    });
+
+    group('QueryCursor', () {
+      test('reads pages until there are no more documents', () async {
+        final QueryCursor cursor = collectionReference.cursor(pageSize: 2);
+        final List<List<DocumentSnapshot>> pages = await Future.wait(
+            <Future<List<DocumentSnapshot>>>[cursor.next(), cursor.next()]);
+        expect(
+          pages.map((List<DocumentSnapshot> page) => page
+              .map((DocumentSnapshot document) => document.documentID)
+              .toList()),
+          <List<String>>[
+            <String>['0', '1'],
+            <String>['2'],
+          ],
+        );
+        expect(cursor.hasMore, isFalse);
+        expect(await cursor.next(), isEmpty);
+        await cursor.close();
+        expect(log, <Matcher>[
+          isMethodCall(
+            'Query#createCursor',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'path': 'foo',
+              'isCollectionGroup': false,
+              'parameters': <String, dynamic>{
+                'where': <List<dynamic>>[],
+                'orderBy': <List<dynamic>>[],
+              },
+              'source': 'default',
+              'pageSize': 2,
+            },
+          ),
+          isMethodCall(
+            'QueryCursor#next',
+            arguments: <String, dynamic>{'handle': 4},
+          ),
+          isMethodCall(
+            'QueryCursor#next',
+            arguments: <String, dynamic>{'handle': 4},
+          ),
+          isMethodCall(
+            'QueryCursor#close',
+            arguments: <String, dynamic>{'handle': 4},
+          ),
+        ]);
+      });
+    });
+
     group('FirestoreMessageCodec', () {
       const MessageCodec<dynamic> codec = FirestoreMessageCodec();
       final DateTime testTime = DateTime(2015, 10, 30, 11, 16);
@@ -984,6 +1630,40 @@ void main() {
         _checkEncodeDecode<dynamic>(codec, FieldValue.increment(1.0));
         _checkEncodeDecode<dynamic>(codec, FieldValue.increment(1));
       });
+      test('decode string table', () {
+        final List<int> bytes = <int>[12, 4]
+          ..addAll(<int>[140, 5])
+          ..addAll('users'.codeUnits)
+          ..addAll(<int>[141, 0])
+          ..addAll(<int>[142, 141, 0, 3])
+          ..addAll('bar'.codeUnits)
+          ..addAll(<int>[143, 7, 7])
+          ..addAll('testApp'.codeUnits)
+          ..addAll(<int>[142, 141, 0, 1])
+          ..addAll('x'.codeUnits);
+        final List<dynamic> decoded = codec
+            .decodeMessage(ByteData.view(Uint8List.fromList(bytes).buffer));
+        expect(decoded.sublist(0, 3), <String>['users', 'users', 'users/bar']);
+        final DocumentReference reference = decoded[3];
+        expect(reference.path, 'users/x');
+        expect(reference.firestore.app.name, 'testApp');
+      });
+      test('decode snapshot metadata flags', () {
+        dynamic decode(int flags) => codec.decodeMessage(
+            ByteData.view(Uint8List.fromList(<int>[139, flags]).buffer));
+        expect(decode(0), <String, bool>{
+          'hasPendingWrites': false,
+          'isFromCache': false,
+        });
+        expect(decode(1), <String, bool>{
+          'hasPendingWrites': true,
+          'isFromCache': false,
+        });
+        expect(decode(3), <String, bool>{
+          'hasPendingWrites': true,
+          'isFromCache': true,
+        });
+      });
     });
 
     group('Timestamp', () {
@@ -1069,23 +1749,18 @@ void main() {
         expect(
           log,
           <Matcher>[
-            isMethodCall('WriteBatch#create', arguments: <String, dynamic>{
-              'app': app.name,
-            }),
             isMethodCall(
-              'WriteBatch#setData',
+              'WriteBatch#commitOps',
               arguments: <String, dynamic>{
                 'app': app.name,
-                'handle': 1,
-                'path': 'foo/bar',
-                'data': <String, String>{'bazKey': 'quxValue'},
-                'options': <String, bool>{'merge': false},
-              },
-            ),
-            isMethodCall(
-              'WriteBatch#commit',
-              arguments: <String, dynamic>{
-                'handle': 1,
+                'operations': <Map<String, dynamic>>[
+                  <String, dynamic>{
+                    'type': 'set',
+                    'path': 'foo/bar',
+                    'data': <String, String>{'bazKey': 'quxValue'},
+                    'options': <String, bool>{'merge': false},
+                  },
+                ],
               },
             ),
           ],
@@ -1102,20 +1777,18 @@ void main() {
         expect(
           log,
           <Matcher>[
-            isMethodCall('WriteBatch#create', arguments: <String, dynamic>{
-              'app': app.name,
-            }),
-            isMethodCall('WriteBatch#setData', arguments: <String, dynamic>{
-              'app': app.name,
-              'handle': 1,
-              'path': 'foo/bar',
-              'data': <String, String>{'bazKey': 'quxValue'},
-              'options': <String, bool>{'merge': true},
-            }),
             isMethodCall(
-              'WriteBatch#commit',
+              'WriteBatch#commitOps',
               arguments: <String, dynamic>{
-                'handle': 1,
+                'app': app.name,
+                'operations': <Map<String, dynamic>>[
+                  <String, dynamic>{
+                    'type': 'set',
+                    'path': 'foo/bar',
+                    'data': <String, String>{'bazKey': 'quxValue'},
+                    'options': <String, bool>{'merge': true},
+                  },
+                ],
               },
             ),
           ],
@@ -1132,24 +1805,16 @@ void main() {
           log,
           <Matcher>[
             isMethodCall(
-              'WriteBatch#create',
+              'WriteBatch#commitOps',
               arguments: <String, dynamic>{
                 'app': app.name,
-              },
-            ),
-            isMethodCall(
-              'WriteBatch#updateData',
-              arguments: <String, dynamic>{
-                'app': app.name,
-                'handle': 1,
-                'path': 'foo/bar',
-                'data': <String, String>{'bazKey': 'quxValue'},
-              },
-            ),
-            isMethodCall(
-              'WriteBatch#commit',
-              arguments: <String, dynamic>{
-                'handle': 1,
+                'operations': <Map<String, dynamic>>[
+                  <String, dynamic>{
+                    'type': 'update',
+                    'path': 'foo/bar',
+                    'data': <String, String>{'bazKey': 'quxValue'},
+                  },
+                ],
               },
             ),
           ],
@@ -1163,28 +1828,110 @@ void main() {
           log,
           <Matcher>[
             isMethodCall(
-              'WriteBatch#create',
+              'WriteBatch#commitOps',
               arguments: <String, dynamic>{
                 'app': app.name,
+                'operations': <Map<String, dynamic>>[
+                  <String, dynamic>{
+                    'type': 'delete',
+                    'path': 'foo/bar',
+                  },
+                ],
               },
             ),
-            isMethodCall(
-              'WriteBatch#delete',
-              arguments: <String, dynamic>{
-                'app': app.name,
-                'handle': 1,
-                'path': 'foo/bar',
-              },
-            ),
-            isMethodCall(
-              'WriteBatch#commit',
-              arguments: <String, dynamic>{
-                'handle': 1,
-              },
-            ),
           ],
         );
       });
+      test('multiple operations', () async {
+        final WriteBatch batch = firestore.batch();
+        batch.setData(collectionReference.document('a'), <String, int>{'a': 1});
+        batch.updateData(
+            collectionReference.document('b'), <String, int>{'b': 2});
+        batch.delete(collectionReference.document('c'));
+        await batch.commit();
+        expect(log, hasLength(1));
+        expect(log.single.method, 'WriteBatch#commitOps');
+        expect(
+          log.single.arguments['operations']
+              .map((dynamic operation) => operation['path']),
+          <String>['foo/a', 'foo/b', 'foo/c'],
+        );
+        expect(() => batch.delete(collectionReference.document('d')),
+            throwsStateError);
+        expect(batch.commit(), throwsStateError);
+      });
+    });
+
+    group('bulkWrite', () {
+      test('sends operations in chunks', () async {
+        final List<BulkWriteProgress> progress = <BulkWriteProgress>[];
+        final Stream<BulkWriteOperation> operations =
+            Stream<int>.fromIterable(List<int>.generate(502, (int i) => i))
+                .map<BulkWriteOperation>((int i) {
+          final DocumentReference document = collectionReference.document('$i');
+          final Map<String, int> data = <String, int>{'i': i};
+          return i.isEven
+              ? BulkWriteOperation.set(document, data)
+              : BulkWriteOperation.update(document, data);
+        });
+        final BulkWriteResult result = await firestore.bulkWrite(
+          operations,
+          maxConcurrentBatches: 2,
+          initialBackoff: const Duration(milliseconds: 100),
+          onProgress: progress.add,
+        );
+        expect(
+          log.map((MethodCall call) => call.method),
+          <String>[
+            'Firestore#bulkWrite',
+            'BulkWriter#add',
+            'BulkWriter#add',
+            'BulkWriter#close',
+          ],
+        );
+        expect(log[0].arguments, <String, dynamic>{
+          'app': app.name,
+          'maxConcurrentBatches': 2,
+          'maxRetries': 3,
+          'initialBackoffMillis': 100,
+        });
+        expect(log[1].arguments['handle'], 7);
+        expect(log[1].arguments['startIndex'], 0);
+        expect(log[1].arguments['operations'], hasLength(500));
+        expect(log[1].arguments['operations'][1], <String, dynamic>{
+          'type': 'update',
+          'path': 'foo/1',
+          'data': <String, int>{'i': 1},
+        });
+        expect(log[2].arguments['startIndex'], 500);
+        expect(log[2].arguments['operations'], hasLength(2));
+        expect(log[3].arguments, <String, dynamic>{'handle': 7});
+        expect(progress, hasLength(1));
+        expect(result.committed, 501);
+        expect(result.failed, 1);
+        expect(result.retries, 2);
+        expect(result.failures.single.index, 3);
+        expect(result.failures.single.path, 'foo/3');
+        expect(result.failures.single.code, 'NOT_FOUND');
+      });
+
+      test('aborts the platform writer when the stream fails', () async {
+        final StreamController<BulkWriteOperation> operations =
+            StreamController<BulkWriteOperation>();
+        operations
+          ..add(BulkWriteOperation.delete(collectionReference.document('1')))
+          ..addError(StateError('no more operations'))
+          ..close();
+        await expectLater(
+          firestore.bulkWrite(operations.stream),
+          throwsA(isInstanceOf<StateError>()),
+        );
+        expect(
+          log.map((MethodCall call) => call.method),
+          <String>['Firestore#bulkWrite', 'BulkWriter#abort'],
+        );
+        expect(log[1].arguments, <String, dynamic>{'handle': 7});
+      });
     });
   });
 }
@@ -0,0 +1,151 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import com.google.firebase.database.MutableData;
+import com.google.firebase.database.Transaction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A transaction update computed natively, so that {@link Transaction.Handler#doTransaction} doesn't
+ * wait for Dart and retries under contention are cheap.
+ *
+ * <p>The operation applies to the data at the transaction's location, or at its {@code child} if
+ * one is given. It fails when the current data has an unexpected type, or when the comparison of a
+ * compare-and-set fails.
+ *
+ * <p>The SDK first runs a transaction on the locally cached data, which may be stale or missing
+ * even though the server has data. So a failed operation doesn't abort the transaction, but leaves
+ * the data unchanged: if the cached data was stale, the server rejects the transaction and it is
+ * run again with the server's data. Whether the operation failed on the data the transaction was
+ * eventually committed with is given by {@link #failed}.
+ */
+final class AtomicOperation {
+  private static final String INCREMENT = "increment";
+  private static final String MIN = "min";
+  private static final String MAX = "max";
+  private static final String APPEND = "append";
+  private static final String COMPARE_AND_SET = "compareAndSet";
+  // Returned by newValue() when the operation fails.
+  private static final Object FAILED = new Object();
+
+  private final String operation;
+  private final String child;
+  private final Object value;
+  private final Object expected;
+  // Set by apply() on the SDK's transaction thread, read on completion.
+  private volatile boolean failed = false;
+
+  private AtomicOperation(String operation, String child, Object value, Object expected) {
+    this.operation = operation;
+    this.child = child;
+    this.value = value;
+    this.expected = expected;
+  }
+
+  /** Returns the operation described by arguments sent from Dart. */
+  static AtomicOperation fromArguments(Map<String, Object> arguments) {
+    String operation = (String) arguments.get("operation");
+    Object value = arguments.get("value");
+    switch (operation) {
+      case INCREMENT:
+      case MIN:
+      case MAX:
+        if (!(value instanceof Number)) {
+          throw new IllegalArgumentException(operation + " requires a number");
+        }
+        break;
+      case APPEND:
+      case COMPARE_AND_SET:
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown atomic operation " + operation);
+    }
+    return new AtomicOperation(
+        operation, (String) arguments.get("child"), value, arguments.get("expected"));
+  }
+
+  /**
+   * Whether the operation failed on the data of its last {@link #apply}, in which case the
+   * transaction committed the data unchanged.
+   */
+  boolean failed() {
+    return failed;
+  }
+
+  Transaction.Result apply(MutableData mutableData) {
+    MutableData target = child != null ? mutableData.child(child) : mutableData;
+    Object newValue = newValue(target.getValue());
+    failed = newValue == FAILED;
+    if (!failed) target.setValue(newValue);
+    return Transaction.success(mutableData);
+  }
+
+  // Returns the value that replaces current, or FAILED if the operation fails on it.
+  private Object newValue(Object current) {
+    switch (operation) {
+      case INCREMENT:
+        {
+          if (current == null) current = 0L;
+          if (!(current instanceof Number)) return FAILED;
+          return add((Number) current, (Number) value);
+        }
+      case MIN:
+      case MAX:
+        {
+          if (current == null) return value;
+          if (!(current instanceof Number)) return FAILED;
+          return replaces((Number) value, (Number) current) ? value : current;
+        }
+      case APPEND:
+        {
+          List<Object> list = new ArrayList<>();
+          if (current instanceof List) {
+            list.addAll((List<?>) current);
+          } else if (current != null) {
+            return FAILED;
+          }
+          list.add(value);
+          return list;
+        }
+      case COMPARE_AND_SET:
+        {
+          return valuesEqual(current, expected) ? value : FAILED;
+        }
+    }
+    return FAILED;
+  }
+
+  // Whether the value of a min or max operation replaces the current value.
+  private boolean replaces(Number value, Number current) {
+    int comparison = compare(value, current);
+    return MIN.equals(operation) ? comparison < 0 : comparison > 0;
+  }
+
+  private static boolean isIntegral(Number number) {
+    return number instanceof Long || number instanceof Integer;
+  }
+
+  private static Number add(Number a, Number b) {
+    if (isIntegral(a) && isIntegral(b)) return a.longValue() + b.longValue();
+    return a.doubleValue() + b.doubleValue();
+  }
+
+  private static int compare(Number a, Number b) {
+    if (isIntegral(a) && isIntegral(b)) return Long.compare(a.longValue(), b.longValue());
+    return Double.compare(a.doubleValue(), b.doubleValue());
+  }
+
+  // The database returns Long for integral numbers while Dart sends Integer for small ones, so
+  // numbers are compared by value.
+  private static boolean valuesEqual(Object a, Object b) {
+    if (a instanceof Number && b instanceof Number) {
+      return compare((Number) a, (Number) b) == 0;
+    }
+    return a == null ? b == null : a.equals(b);
+  }
+}
@@ -7,6 +7,7 @@ package io.flutter.plugins.firebase.database;
 import android.app.Activity;
 import android.util.Log;
 import android.util.SparseArray;
+import android.view.Choreographer;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskCompletionSource;
 import com.google.android.gms.tasks.Tasks;
@@ -26,8 +27,14 @@ import io.flutter.plugin.common.MethodChannel;
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.plugin.common.PluginRegistry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -48,6 +55,10 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
   // Handles are ints used as indexes into the sparse array of active observers
   private int nextHandle = 0;
   private final SparseArray<EventObserver> observers = new SparseArray<>();
+  // Observers by query and options, see observe().
+  private final Map<String, EventObserver> sharedObservers = new HashMap<>();
+
+  private final WriteCoalescer writeCoalescer = new WriteCoalescer();
 
   public static void registerWith(PluginRegistry.Registrar registrar) {
     final MethodChannel channel =
@@ -67,6 +78,23 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
     return reference;
   }
 
+  /**
+   * Makes the coalesced writes that are pending at locations overlapping the location of {@code
+   * arguments}, so that they are not reordered with the operation on it.
+   */
+  private void flushCoalescedWrites(Map<String, Object> arguments) {
+    writeCoalescer.flushOverlapping(getDatabaseKey(arguments), getPath(arguments));
+  }
+
+  private static String getDatabaseKey(Map<String, Object> arguments) {
+    return arguments.get("app") + "|" + arguments.get("databaseURL");
+  }
+
+  private static String getPath(Map<String, Object> arguments) {
+    String path = (String) arguments.get("path");
+    return path != null ? path : "";
+  }
+
   private Query getQuery(FirebaseDatabase database, Map<String, Object> arguments) {
     Query query = getReference(database, arguments);
     @SuppressWarnings("unchecked")
@@ -171,32 +199,185 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
     }
   }
 
+  /**
+   * Forwards the events of an SDK listener to Dart. Handles that observe the same query with the
+   * same options share an observer, and each event is sent to all of them in one message.
+   */
   private class EventObserver implements ChildEventListener, ValueEventListener {
-    private String requestedEventType;
-    private int handle;
+    private final String key;
+    private final Query query;
+    private final Set<String> requestedEventTypes;
+    // Whether events are tagged with their type, because the observer forwards several types.
+    private final boolean multi;
+    private final List<Integer> handles = new ArrayList<>();
+
+    // When batching, events are buffered and sent to Dart together in a single "Events" message
+    // on the next frame, or as soon as batchSize events are buffered.
+    private final int batchSize;
+    private List<Map<String, Object>> pendingEvents = new ArrayList<>();
+    private boolean flushScheduled = false;
+    private final Choreographer.FrameCallback flushCallback =
+        new Choreographer.FrameCallback() {
+          @Override
+          public void doFrame(long frameTimeNanos) {
+            flushScheduled = false;
+            flushEvents();
+          }
+        };
+
+    // The data received so far, which is sent to handles that start sharing the observer: the
+    // last value, or the children in query order when child added events are observed. The
+    // immutable snapshots share their data with the SDK's cache.
+    private DataSnapshot lastValue;
+    private final List<String> childKeys = new ArrayList<>();
+    private final Map<String, DataSnapshot> children = new HashMap<>();
+
+    EventObserver(
+        String key,
+        Query query,
+        Collection<String> requestedEventTypes,
+        boolean multi,
+        int batchSize) {
+      this.key = key;
+      this.query = query;
+      this.requestedEventTypes = new HashSet<>(requestedEventTypes);
+      this.multi = multi;
+      this.batchSize = batchSize;
+    }
 
-    EventObserver(String requestedEventType, int handle) {
-      this.requestedEventType = requestedEventType;
-      this.handle = handle;
+    boolean isValueObserver() {
+      return requestedEventTypes.contains(EVENT_TYPE_VALUE);
     }
 
     private void sendEvent(String eventType, DataSnapshot snapshot, String previousChildName) {
-      if (eventType.equals(requestedEventType)) {
+      updateData(eventType, snapshot, previousChildName);
+      if (requestedEventTypes.contains(eventType)) {
+        Map<String, Object> arguments = asEvent(eventType, snapshot, previousChildName);
+        if (batchSize > 0) {
+          bufferEvent(arguments);
+        } else {
+          putHandles(arguments, handles);
+          channel.invokeMethod("Event", arguments);
+        }
+      }
+    }
+
+    private Map<String, Object> asEvent(
+        String eventType, DataSnapshot snapshot, String previousChildName) {
+      Map<String, Object> snapshotMap = new HashMap<>();
+      snapshotMap.put("key", snapshot.getKey());
+      snapshotMap.put("value", snapshot.getValue());
+      Map<String, Object> event = new HashMap<>();
+      event.put("snapshot", snapshotMap);
+      event.put("previousSiblingKey", previousChildName);
+      if (multi) event.put("eventType", eventType);
+      return event;
+    }
+
+    private void updateData(String eventType, DataSnapshot snapshot, String previousChildName) {
+      if (EVENT_TYPE_VALUE.equals(eventType)) {
+        lastValue = snapshot;
+        return;
+      }
+      if (!requestedEventTypes.contains(EVENT_TYPE_CHILD_ADDED)) return;
+      String childKey = snapshot.getKey();
+      if (EVENT_TYPE_CHILD_CHANGED.equals(eventType)) {
+        children.put(childKey, snapshot);
+        return;
+      }
+      if (!EVENT_TYPE_CHILD_ADDED.equals(eventType)) childKeys.remove(childKey);
+      if (EVENT_TYPE_CHILD_REMOVED.equals(eventType)) {
+        children.remove(childKey);
+        return;
+      }
+      children.put(childKey, snapshot);
+      int lastIndex = childKeys.size() - 1;
+      if (previousChildName == null) {
+        childKeys.add(0, childKey);
+      } else if (lastIndex >= 0 && previousChildName.equals(childKeys.get(lastIndex))) {
+        // Children are usually added in order, e.g. when the query is first loaded.
+        childKeys.add(childKey);
+      } else {
+        childKeys.add(childKeys.indexOf(previousChildName) + 1, childKey);
+      }
+    }
+
+    /**
+     * Starts sending events to {@code handle}, first sending it the data received so far, as an
+     * SDK listener added for it would.
+     */
+    void addHandle(int handle) {
+      // Buffered events are part of the data received so far.
+      flushEvents();
+      handles.add(handle);
+      List<Map<String, Object>> events = new ArrayList<>();
+      if (isValueObserver()) {
+        if (lastValue != null) events.add(asEvent(EVENT_TYPE_VALUE, lastValue, null));
+      } else if (requestedEventTypes.contains(EVENT_TYPE_CHILD_ADDED)) {
+        String previousChildName = null;
+        for (String childKey : childKeys) {
+          events.add(asEvent(EVENT_TYPE_CHILD_ADDED, children.get(childKey), previousChildName));
+          previousChildName = childKey;
+        }
+      }
+      if (events.isEmpty()) return;
+      List<Integer> newHandles = Collections.singletonList(handle);
+      if (batchSize > 0) {
         Map<String, Object> arguments = new HashMap<>();
-        Map<String, Object> snapshotMap = new HashMap<>();
-        snapshotMap.put("key", snapshot.getKey());
-        snapshotMap.put("value", snapshot.getValue());
-        arguments.put("handle", handle);
-        arguments.put("snapshot", snapshotMap);
-        arguments.put("previousSiblingKey", previousChildName);
-        channel.invokeMethod("Event", arguments);
+        putHandles(arguments, newHandles);
+        arguments.put("events", events);
+        channel.invokeMethod("Events", arguments);
+      } else {
+        for (Map<String, Object> event : events) {
+          putHandles(event, newHandles);
+          channel.invokeMethod("Event", event);
+        }
+      }
+    }
+
+    /** Stops sending events to {@code handle}. Returns whether no handles remain. */
+    boolean removeHandle(int handle) {
+      handles.remove(Integer.valueOf(handle));
+      return handles.isEmpty();
+    }
+
+    private void bufferEvent(Map<String, Object> event) {
+      pendingEvents.add(event);
+      if (pendingEvents.size() >= batchSize) {
+        flushEvents();
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        Choreographer.getInstance().postFrameCallback(flushCallback);
+      }
+    }
+
+    /** Sends the buffered events, in the order they were received. */
+    private void flushEvents() {
+      if (pendingEvents.isEmpty()) return;
+      Map<String, Object> arguments = new HashMap<>();
+      putHandles(arguments, handles);
+      arguments.put("events", pendingEvents);
+      pendingEvents = new ArrayList<>();
+      channel.invokeMethod("Events", arguments);
+    }
+
+    /** Drops the buffered events of an observer that was removed. */
+    void cancelPendingEvents() {
+      if (flushScheduled) {
+        Choreographer.getInstance().removeFrameCallback(flushCallback);
+        flushScheduled = false;
       }
+      pendingEvents.clear();
     }
 
     @Override
     public void onCancelled(DatabaseError error) {
+      // The SDK removed the listener, so later handles must not share it.
+      if (sharedObservers.get(key) == this) sharedObservers.remove(key);
+      // Events received before the error are delivered first.
+      flushEvents();
       Map<String, Object> arguments = new HashMap<>();
-      arguments.put("handle", handle);
+      putHandles(arguments, handles);
       arguments.put("error", asMap(error));
       channel.invokeMethod("Error", arguments);
     }
@@ -264,6 +445,12 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
           break;
         }
 
+      case "FirebaseDatabase#getWriteCoalescingStats":
+        {
+          result.success(writeCoalescer.getStats());
+          break;
+        }
+
       case "FirebaseDatabase#setPersistenceEnabled":
         {
           Boolean isEnabled = (Boolean) arguments.get("enabled");
@@ -295,6 +482,19 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
           Object value = arguments.get("value");
           Object priority = arguments.get("priority");
           DatabaseReference reference = getReference(database, arguments);
+          Integer coalesceMillis = (Integer) arguments.get("coalesceMillis");
+          if (coalesceMillis != null) {
+            writeCoalescer.set(
+                getDatabaseKey(arguments),
+                getPath(arguments),
+                reference,
+                value,
+                priority,
+                coalesceMillis,
+                result);
+            break;
+          }
+          flushCoalescedWrites(arguments);
           if (priority != null) {
             reference.setValue(value, priority, new DefaultCompletionListener(result));
           } else {
@@ -308,6 +508,18 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
           @SuppressWarnings("unchecked")
           Map<String, Object> value = (Map<String, Object>) arguments.get("value");
           DatabaseReference reference = getReference(database, arguments);
+          Integer coalesceMillis = (Integer) arguments.get("coalesceMillis");
+          if (coalesceMillis != null) {
+            writeCoalescer.update(
+                getDatabaseKey(arguments),
+                getPath(arguments),
+                reference,
+                value,
+                coalesceMillis,
+                result);
+            break;
+          }
+          flushCoalescedWrites(arguments);
           reference.updateChildren(value, new DefaultCompletionListener(result));
           break;
         }
@@ -316,6 +528,7 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
         {
           Object priority = arguments.get("priority");
           DatabaseReference reference = getReference(database, arguments);
+          flushCoalescedWrites(arguments);
           reference.setPriority(priority, new DefaultCompletionListener(result));
           break;
         }
@@ -323,6 +536,7 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
       case "DatabaseReference#runTransaction":
         {
           final DatabaseReference reference = getReference(database, arguments);
+          flushCoalescedWrites(arguments);
 
           // Initiate native transaction.
           reference.runTransaction(
@@ -404,31 +618,55 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
                 @Override
                 public void onComplete(
                     DatabaseError databaseError, boolean committed, DataSnapshot dataSnapshot) {
-                  final Map<String, Object> completionMap = new HashMap<>();
-                  completionMap.put("transactionKey", arguments.get("transactionKey"));
-                  if (databaseError != null) {
-                    completionMap.put("error", asMap(databaseError));
-                  }
-                  completionMap.put("committed", committed);
-                  if (dataSnapshot != null) {
-                    Map<String, Object> snapshotMap = new HashMap<>();
-                    snapshotMap.put("key", dataSnapshot.getKey());
-                    snapshotMap.put("value", dataSnapshot.getValue());
-                    completionMap.put("snapshot", snapshotMap);
-                  }
-
-                  // Invoke transaction completion on the Dart side.
-                  activity.runOnUiThread(
-                      new Runnable() {
-                        public void run() {
-                          result.success(completionMap);
-                        }
-                      });
+                  completeTransaction(
+                      result,
+                      arguments.get("transactionKey"),
+                      databaseError,
+                      committed,
+                      dataSnapshot);
                 }
               });
           break;
         }
 
+      case "DatabaseReference#runAtomicOperation":
+        {
+          final AtomicOperation operation;
+          try {
+            operation = AtomicOperation.fromArguments(arguments);
+          } catch (IllegalArgumentException e) {
+            result.error("invalid_operation", e.getMessage(), null);
+            break;
+          }
+          flushCoalescedWrites(arguments);
+          // Unlike DatabaseReference#runTransaction, the update is computed without waiting for
+          // Dart, so that retries under contention are cheap.
+          getReference(database, arguments)
+              .runTransaction(
+                  new Transaction.Handler() {
+                    @Override
+                    public Transaction.Result doTransaction(MutableData mutableData) {
+                      return operation.apply(mutableData);
+                    }
+
+                    @Override
+                    public void onComplete(
+                        DatabaseError databaseError,
+                        boolean committed,
+                        DataSnapshot dataSnapshot) {
+                      // A failed operation commits the data unchanged, which isn't reported as
+                      // committed.
+                      completeTransaction(
+                          result,
+                          null,
+                          databaseError,
+                          committed && !operation.failed(),
+                          dataSnapshot);
+                    }
+                  });
+          break;
+        }
+
       case "OnDisconnect#set":
         {
           Object value = arguments.get("value");
@@ -481,30 +719,43 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
       case "Query#observe":
         {
           String eventType = (String) arguments.get("eventType");
-          int handle = nextHandle++;
-          EventObserver observer = new EventObserver(eventType, handle);
-          observers.put(handle, observer);
-          if (eventType.equals(EVENT_TYPE_VALUE)) {
-            getQuery(database, arguments).addValueEventListener(observer);
-          } else {
-            getQuery(database, arguments).addChildEventListener(observer);
+          observe(database, arguments, Collections.singletonList(eventType), false, 0, result);
+          break;
+        }
+
+      case "Query#observeMulti":
+        {
+          // A single child listener that forwards several event types, instead of one listener
+          // per type that each drop the events of the other types.
+          @SuppressWarnings("unchecked")
+          List<String> eventTypes = (List<String>) arguments.get("eventTypes");
+          if (eventTypes.isEmpty() || eventTypes.contains(EVENT_TYPE_VALUE)) {
+            result.error(
+                "invalid_event_types", "observeMulti requires one or more child event types", null);
+            break;
           }
-          result.success(handle);
+          Integer batchSize = (Integer) arguments.get("batchSize");
+          observe(database, arguments, eventTypes, true, batchSize != null ? batchSize : 0, result);
           break;
         }
 
       case "Query#removeObserver":
         {
-          Query query = getQuery(database, arguments);
           int handle = (Integer) arguments.get("handle");
           EventObserver observer = observers.get(handle);
           if (observer != null) {
-            if (observer.requestedEventType.equals(EVENT_TYPE_VALUE)) {
-              query.removeEventListener((ValueEventListener) observer);
-            } else {
-              query.removeEventListener((ChildEventListener) observer);
-            }
             observers.delete(handle);
+            if (observer.removeHandle(handle)) {
+              if (observer.isValueObserver()) {
+                observer.query.removeEventListener((ValueEventListener) observer);
+              } else {
+                observer.query.removeEventListener((ChildEventListener) observer);
+              }
+              observer.cancelPendingEvents();
+              if (sharedObservers.get(observer.key) == observer) {
+                sharedObservers.remove(observer.key);
+              }
+            }
             result.success(null);
             break;
           } else {
@@ -521,6 +772,80 @@ public class FirebaseDatabasePlugin implements MethodCallHandler {
     }
   }
 
+  /**
+   * Replies with a new handle for events of {@code eventTypes} of the query described by {@code
+   * arguments}. Handles observing the same query with the same options share a single observer
+   * and SDK listener.
+   */
+  private void observe(
+      FirebaseDatabase database,
+      Map<String, Object> arguments,
+      List<String> eventTypes,
+      boolean multi,
+      int batchSize,
+      Result result) {
+    List<String> sortedEventTypes = new ArrayList<>(eventTypes);
+    Collections.sort(sortedEventTypes);
+    String key = QueryKey.of(arguments) + "|" + sortedEventTypes + "|" + multi + "|" + batchSize;
+    int handle = nextHandle++;
+    EventObserver observer = sharedObservers.get(key);
+    if (observer != null) {
+      observers.put(handle, observer);
+      result.success(handle);
+      // Sent after the handle, like the events of a new SDK listener.
+      observer.addHandle(handle);
+      return;
+    }
+    Query query = getQuery(database, arguments);
+    observer = new EventObserver(key, query, eventTypes, multi, batchSize);
+    observer.addHandle(handle);
+    observers.put(handle, observer);
+    sharedObservers.put(key, observer);
+    if (observer.isValueObserver()) {
+      query.addValueEventListener(observer);
+    } else {
+      query.addChildEventListener(observer);
+    }
+    result.success(handle);
+  }
+
+  /** Adds the handles an event is sent to, as a single handle when there is only one. */
+  private static void putHandles(Map<String, Object> arguments, List<Integer> handles) {
+    if (handles.size() == 1) {
+      arguments.put("handle", handles.get(0));
+    } else {
+      arguments.put("handles", new ArrayList<>(handles));
+    }
+  }
+
+  private void completeTransaction(
+      final Result result,
+      Object transactionKey,
+      DatabaseError databaseError,
+      boolean committed,
+      DataSnapshot dataSnapshot) {
+    final Map<String, Object> completionMap = new HashMap<>();
+    completionMap.put("transactionKey", transactionKey);
+    if (databaseError != null) {
+      completionMap.put("error", asMap(databaseError));
+    }
+    completionMap.put("committed", committed);
+    if (dataSnapshot != null) {
+      Map<String, Object> snapshotMap = new HashMap<>();
+      snapshotMap.put("key", dataSnapshot.getKey());
+      snapshotMap.put("value", dataSnapshot.getValue());
+      completionMap.put("snapshot", snapshotMap);
+    }
+
+    // Invoke transaction completion on the Dart side.
+    activity.runOnUiThread(
+        new Runnable() {
+          public void run() {
+            result.success(completionMap);
+          }
+        });
+  }
+
   private static Map<String, Object> asMap(DatabaseError error) {
     Map<String, Object> map = new HashMap<>();
     map.put("code", error.getCode());
@@ -0,0 +1,77 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a canonical string for the query arguments sent from Dart ({@code app}, {@code
+ * databaseURL}, {@code path} and {@code parameters}).
+ *
+ * <p>Two argument maps that describe the same query produce the same key, regardless of the
+ * iteration order of the decoded maps. Numbers are compared by value, since the query is built
+ * from their double values.
+ */
+final class QueryKey {
+
+  static String of(Map<String, Object> arguments) {
+    StringBuilder builder = new StringBuilder();
+    append(builder, arguments.get("app"));
+    builder.append('|');
+    append(builder, arguments.get("databaseURL"));
+    builder.append('|');
+    append(builder, arguments.get("path"));
+    builder.append('|');
+    append(builder, arguments.get("parameters"));
+    return builder.toString();
+  }
+
+  private static void append(StringBuilder builder, Object value) {
+    if (value == null) {
+      builder.append("null");
+    } else if (value instanceof String) {
+      String string = (String) value;
+      builder.append('"');
+      for (int i = 0; i < string.length(); i++) {
+        char c = string.charAt(i);
+        if (c == '"' || c == '\\') builder.append('\\');
+        builder.append(c);
+      }
+      builder.append('"');
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      List<String> keys = new ArrayList<>();
+      for (Object key : map.keySet()) {
+        keys.add(String.valueOf(key));
+      }
+      Collections.sort(keys);
+      builder.append('{');
+      for (String key : keys) {
+        append(builder, key);
+        builder.append(':');
+        append(builder, map.get(key));
+        builder.append(',');
+      }
+      builder.append('}');
+    } else if (value instanceof List) {
+      builder.append('[');
+      for (Object element : (List<?>) value) {
+        append(builder, element);
+        builder.append(',');
+      }
+      builder.append(']');
+    } else if (value instanceof Number) {
+      builder.append("num(").append(((Number) value).doubleValue()).append(')');
+    } else {
+      builder.append(value.getClass().getSimpleName()).append('(').append(value).append(')');
+    }
+  }
+
+  // Should never be instantiated.
+  private QueryKey() {}
+}
@@ -0,0 +1,191 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import io.flutter.plugin.common.MethodChannel.Result;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds back set and update writes to a location for a short window, so that when the location is
+ * written again within the window only its final state is written to the database.
+ *
+ * <p>A later set replaces the pending write, and a later update is merged into a pending update
+ * unless one of its paths is nested in a path of the pending update. The results of all the
+ * coalesced writes complete with the outcome of the write that is eventually made. To keep writes
+ * in order, the pending writes to locations that overlap another write are made before it.
+ *
+ * <p>All methods must be called on the UI thread.
+ */
+final class WriteCoalescer {
+  private final class PendingWrite implements Runnable {
+    final String key;
+    final DatabaseReference reference;
+    final List<Result> results = new ArrayList<>();
+    Object value;
+    Object priority;
+    Map<String, Object> update;
+
+    PendingWrite(String key, DatabaseReference reference) {
+      this.key = key;
+      this.reference = reference;
+    }
+
+    @Override
+    public void run() {
+      flush(this);
+    }
+  }
+
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  // Keyed by database and path, see key().
+  private final Map<String, PendingWrite> pendingWrites = new LinkedHashMap<>();
+  private long writes = 0;
+  private long flushes = 0;
+  private long saved = 0;
+
+  /** Sets {@code value} at {@code reference}, possibly together with later writes to it. */
+  void set(
+      String database,
+      String path,
+      DatabaseReference reference,
+      Object value,
+      Object priority,
+      long windowMillis,
+      Result result) {
+    writes++;
+    PendingWrite write = pendingWrites.get(key(database, path));
+    if (write != null) {
+      saved++;
+    } else {
+      write = start(database, path, reference, windowMillis);
+    }
+    write.value = value;
+    write.priority = priority;
+    write.update = null;
+    write.results.add(result);
+  }
+
+  /** Updates the children of {@code reference}, possibly together with later writes to it. */
+  void update(
+      String database,
+      String path,
+      DatabaseReference reference,
+      Map<String, Object> value,
+      long windowMillis,
+      Result result) {
+    writes++;
+    PendingWrite write = pendingWrites.get(key(database, path));
+    if (write != null && write.update != null && !hasNestedPaths(write.update, value)) {
+      saved++;
+      write.update.putAll(value);
+    } else {
+      write = start(database, path, reference, windowMillis);
+      write.update = new HashMap<>(value);
+    }
+    write.results.add(result);
+  }
+
+  /** Makes the pending writes to locations that contain or are contained by {@code path}. */
+  void flushOverlapping(String database, String path) {
+    List<PendingWrite> overlapping = new ArrayList<>();
+    String prefix = database + "|";
+    for (PendingWrite write : pendingWrites.values()) {
+      if (write.key.startsWith(prefix)
+          && isSameOrNested(write.key.substring(prefix.length()), path)) {
+        overlapping.add(write);
+      }
+    }
+    for (PendingWrite write : overlapping) {
+      flush(write);
+    }
+  }
+
+  Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("writes", writes);
+    stats.put("flushes", flushes);
+    stats.put("saved", saved);
+    stats.put("pending", pendingWrites.size());
+    return stats;
+  }
+
+  private PendingWrite start(
+      String database, String path, DatabaseReference reference, long windowMillis) {
+    flushOverlapping(database, path);
+    PendingWrite write = new PendingWrite(key(database, path), reference);
+    pendingWrites.put(write.key, write);
+    handler.postDelayed(write, windowMillis);
+    return write;
+  }
+
+  private void flush(PendingWrite write) {
+    if (pendingWrites.remove(write.key) == null) return;
+    handler.removeCallbacks(write);
+    flushes++;
+    final List<Result> results = write.results;
+    DatabaseReference.CompletionListener listener =
+        new DatabaseReference.CompletionListener() {
+          @Override
+          public void onComplete(DatabaseError error, DatabaseReference ref) {
+            for (Result result : results) {
+              if (error != null) {
+                result.error(
+                    String.valueOf(error.getCode()), error.getMessage(), error.getDetails());
+              } else {
+                result.success(null);
+              }
+            }
+          }
+        };
+    if (write.update != null) {
+      write.reference.updateChildren(write.update, listener);
+    } else if (write.priority != null) {
+      write.reference.setValue(write.value, write.priority, listener);
+    } else {
+      write.reference.setValue(write.value, listener);
+    }
+  }
+
+  private static String key(String database, String path) {
+    return database + "|" + path;
+  }
+
+  // The database rejects an update with a path nested in another one, so such updates are not
+  // merged.
+  private static boolean hasNestedPaths(Map<String, Object> update, Map<String, Object> other) {
+    for (String path : other.keySet()) {
+      for (String pendingPath : update.keySet()) {
+        if (!path.equals(pendingPath) && isSameOrNested(path, pendingPath)) return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isSameOrNested(String a, String b) {
+    a = trimSlashes(a);
+    b = trimSlashes(b);
+    return a.isEmpty()
+        || b.isEmpty()
+        || a.equals(b)
+        || a.startsWith(b + "/")
+        || b.startsWith(a + "/");
+  }
+
+  private static String trimSlashes(String path) {
+    int start = 0;
+    int end = path.length();
+    while (start < end && path.charAt(start) == '/') start++;
+    while (end > start && path.charAt(end - 1) == '/') end--;
+    return path.substring(start, end);
+  }
+}
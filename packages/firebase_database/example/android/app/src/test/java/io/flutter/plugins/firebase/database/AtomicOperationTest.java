@@ -0,0 +1,116 @@
+// Copyright 2019 The Chromium Authors. All rights reserved.
+// Use of this source code is governed by a BSD-style license that can be
+// found in the LICENSE file.
+
+package io.flutter.plugins.firebase.database;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.firebase.database.MutableData;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AtomicOperationTest {
+
+  private static AtomicOperation operation(String name, Object value, Object expected) {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("operation", name);
+    arguments.put("value", value);
+    arguments.put("expected", expected);
+    return AtomicOperation.fromArguments(arguments);
+  }
+
+  private static MutableData data(Object value) {
+    MutableData data = mock(MutableData.class);
+    when(data.getValue()).thenReturn(value);
+    return data;
+  }
+
+  @Test
+  public void compareAndSet_uncachedValueIsRetriedWithServerValue() {
+    AtomicOperation operation = operation("compareAndSet", "new", "old");
+
+    // The SDK first runs the transaction on the missing local value.
+    MutableData uncached = data(null);
+    assertTrue(operation.apply(uncached).isSuccess());
+    verify(uncached, never()).setValue(Mockito.any());
+    assertTrue(operation.failed());
+
+    // The server rejects the unchanged data and the transaction is run with its value.
+    MutableData server = data("old");
+    assertTrue(operation.apply(server).isSuccess());
+    verify(server).setValue("new");
+    assertFalse(operation.failed());
+  }
+
+  @Test
+  public void compareAndSet_mismatchLeavesDataUnchanged() {
+    AtomicOperation operation = operation("compareAndSet", "new", "old");
+    MutableData data = data("other");
+    assertTrue(operation.apply(data).isSuccess());
+    verify(data, never()).setValue(Mockito.any());
+    assertTrue(operation.failed());
+  }
+
+  @Test
+  public void compareAndSet_comparesNumbersByValue() {
+    AtomicOperation operation = operation("compareAndSet", 2, 1);
+    MutableData data = data(1L);
+    operation.apply(data);
+    verify(data).setValue(2);
+    assertFalse(operation.failed());
+  }
+
+  @Test
+  public void compareAndSet_nullValueRemovesData() {
+    AtomicOperation operation = operation("compareAndSet", null, "old");
+    MutableData data = data("old");
+    operation.apply(data);
+    verify(data).setValue(null);
+    assertFalse(operation.failed());
+  }
+
+  @Test
+  public void increment_missingValueCountsAsZero() {
+    AtomicOperation operation = operation("increment", 2, null);
+    MutableData data = data(null);
+    operation.apply(data);
+    verify(data).setValue(2L);
+    assertFalse(operation.failed());
+  }
+
+  @Test
+  public void increment_nonNumberLeavesDataUnchanged() {
+    AtomicOperation operation = operation("increment", 2, null);
+    MutableData data = data("text");
+    assertTrue(operation.apply(data).isSuccess());
+    verify(data, never()).setValue(Mockito.any());
+    assertTrue(operation.failed());
+  }
+
+  @Test
+  public void minAndMax() {
+    MutableData min = data(5L);
+    operation("min", 3, null).apply(min);
+    verify(min).setValue(3);
+
+    MutableData max = data(5L);
+    operation("max", 3, null).apply(max);
+    verify(max).setValue(5L);
+  }
+
+  @Test
+  public void append() {
+    MutableData data = data(Arrays.asList("a"));
+    operation("append", "b", null).apply(data);
+    verify(data).setValue(Arrays.asList("a", "b"));
+  }
+}
@@ -69,29 +69,44 @@ class DatabaseReference extends Query {
   ///
   /// Passing null for the new value means all data at this location or any
   /// child location will be deleted.
-  Future<void> set(dynamic value, {dynamic priority}) {
+  ///
+  /// If [coalesce] is set, the write is held back for that long, and replaced
+  /// by any later [set] or [update] of this location with [coalesce] in the
+  /// meantime. Only the final state is written, and the returned [Future]
+  /// completes when it is. This saves writes to locations that change many
+  /// times per second. Currently only supported on Android.
+  Future<void> set(dynamic value, {dynamic priority, Duration coalesce}) {
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'app': _database.app?.name,
+      'databaseURL': _database.databaseURL,
+      'path': path,
+      'value': value,
+      'priority': priority,
+    };
+    if (coalesce != null) arguments['coalesceMillis'] = coalesce.inMilliseconds;
     return _database._channel.invokeMethod<void>(
       'DatabaseReference#set',
-      <String, dynamic>{
-        'app': _database.app?.name,
-        'databaseURL': _database.databaseURL,
-        'path': path,
-        'value': value,
-        'priority': priority,
-      },
+      arguments,
     );
   }
 
   /// Update the node with the `value`
-  Future<void> update(Map<String, dynamic> value) {
+  ///
+  /// If [coalesce] is set, the write is held back for that long, like for
+  /// [set]. Later updates of this location with [coalesce] in the meantime are
+  /// merged into it, and a later [set] replaces it. Currently only supported
+  /// on Android.
+  Future<void> update(Map<String, dynamic> value, {Duration coalesce}) {
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'app': _database.app?.name,
+      'databaseURL': _database.databaseURL,
+      'path': path,
+      'value': value,
+    };
+    if (coalesce != null) arguments['coalesceMillis'] = coalesce.inMilliseconds;
     return _database._channel.invokeMethod<void>(
       'DatabaseReference#update',
-      <String, dynamic>{
-        'app': _database.app?.name,
-        'databaseURL': _database.databaseURL,
-        'path': path,
-        'value': value,
-      },
+      arguments,
     );
   }
 
@@ -184,6 +199,85 @@ class DatabaseReference extends Query {
     return completer.future;
   }
 
+  /// Atomically adds [delta] to the number at this location, or at its
+  /// [child] if given. A missing value counts as 0.
+  ///
+  /// Unlike [runTransaction], the new value is computed on the platform side,
+  /// so retries when other clients write to the location concurrently don't
+  /// wait for Dart. The transaction isn't committed if the current value is not
+  /// a number.
+  ///
+  /// Currently only supported on Android.
+  Future<TransactionResult> increment(num delta, {String child}) {
+    return _runAtomicOperation('increment', delta, child: child);
+  }
+
+  /// Atomically sets the number at this location, or at its [child] if given,
+  /// to [value] if it is missing or greater than [value].
+  ///
+  /// See [increment] for how this differs from [runTransaction].
+  ///
+  /// Currently only supported on Android.
+  Future<TransactionResult> min(num value, {String child}) {
+    return _runAtomicOperation('min', value, child: child);
+  }
+
+  /// Atomically sets the number at this location, or at its [child] if given,
+  /// to [value] if it is missing or less than [value].
+  ///
+  /// See [increment] for how this differs from [runTransaction].
+  ///
+  /// Currently only supported on Android.
+  Future<TransactionResult> max(num value, {String child}) {
+    return _runAtomicOperation('max', value, child: child);
+  }
+
+  /// Atomically adds [value] to the end of the list at this location, or at
+  /// its [child] if given. A missing list counts as empty.
+  ///
+  /// See [increment] for how this differs from [runTransaction]. The
+  /// transaction isn't committed if the current value is not a list.
+  ///
+  /// Currently only supported on Android.
+  Future<TransactionResult> append(dynamic value, {String child}) {
+    return _runAtomicOperation('append', value, child: child);
+  }
+
+  /// Atomically sets the data at this location, or at its [child] if given,
+  /// to [value] if its current value is [expected].
+  ///
+  /// See [increment] for how this differs from [runTransaction]. The
+  /// transaction isn't committed if the current value is not [expected].
+  ///
+  /// Currently only supported on Android.
+  Future<TransactionResult> compareAndSet(dynamic expected, dynamic value,
+      {String child}) {
+    return _runAtomicOperation('compareAndSet', value,
+        child: child, expected: expected);
+  }
+
+  Future<TransactionResult> _runAtomicOperation(String operation, dynamic value,
+      {String child, dynamic expected}) async {
+    final Map<dynamic, dynamic> result =
+        await _database._channel.invokeMethod<Map<dynamic, dynamic>>(
+      'DatabaseReference#runAtomicOperation',
+      <String, dynamic>{
+        'app': _database.app?.name,
+        'databaseURL': _database.databaseURL,
+        'path': path,
+        'operation': operation,
+        'child': child,
+        'value': value,
+        'expected': expected,
+      },
+    );
+    return TransactionResult._(
+      result['error'] != null ? DatabaseError._(result['error']) : null,
+      result['committed'],
+      result['snapshot'] != null ? DataSnapshot._(result['snapshot']) : null,
+    );
+  }
+
   OnDisconnect onDisconnect() {
     return OnDisconnect._(_database, this);
   }
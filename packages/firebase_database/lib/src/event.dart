@@ -12,6 +12,23 @@ enum _EventType {
   value,
 }
 
+/// The kind of change to a child reported by an [Event] of
+/// [Query.onChildEvents].
+enum ChildEventType {
+  added,
+  removed,
+  changed,
+  moved,
+}
+
+const Map<ChildEventType, _EventType> _childEventTypes =
+    <ChildEventType, _EventType>{
+  ChildEventType.added: _EventType.childAdded,
+  ChildEventType.removed: _EventType.childRemoved,
+  ChildEventType.changed: _EventType.childChanged,
+  ChildEventType.moved: _EventType.childMoved,
+};
+
 /// `Event` encapsulates a DataSnapshot and possibly also the key of its
 /// previous sibling, which can be used to order the snapshots.
 class Event {
@@ -21,6 +38,18 @@ class Event {
   Map<dynamic, dynamic> _data;
 
   String get previousSiblingKey => _data['previousSiblingKey'];
+
+  /// The kind of change to a child reported by this event.
+  ///
+  /// Only set for events of [Query.onChildEvents], null otherwise.
+  ChildEventType get type {
+    final String eventType = _data['eventType'];
+    if (eventType == null) return null;
+    return _childEventTypes.keys.firstWhere(
+      (ChildEventType type) => _childEventTypes[type].toString() == eventType,
+      orElse: () => null,
+    );
+  }
 }
 
 /// A DataSnapshot contains data from a Firebase Database location.
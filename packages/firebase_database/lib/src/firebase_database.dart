@@ -17,11 +17,23 @@ class FirebaseDatabase {
       switch (call.method) {
         case 'Event':
           final Event event = Event._(call.arguments);
-          _observers[call.arguments['handle']].add(event);
+          for (int handle in _handles(call.arguments)) {
+            _observers[handle].add(event);
+          }
+          return null;
+        case 'Events':
+          final List<Event> events = call.arguments['events']
+              .map<Event>((dynamic event) => Event._(event))
+              .toList();
+          for (int handle in _handles(call.arguments)) {
+            events.forEach(_observers[handle].add);
+          }
           return null;
         case 'Error':
           final DatabaseError error = DatabaseError._(call.arguments['error']);
-          _observers[call.arguments['handle']].addError(error);
+          for (int handle in _handles(call.arguments)) {
+            _observers[handle].addError(error);
+          }
           return null;
         case 'DoTransaction':
           final MutableData mutableData =
@@ -39,6 +51,13 @@ class FirebaseDatabase {
     _initialized = true;
   }
 
+  /// The handles of the observers an event is sent to. Observers of the same
+  /// query share the events sent from the platform.
+  static Iterable<int> _handles(dynamic arguments) {
+    final List<dynamic> handles = arguments['handles'];
+    return handles != null ? handles.cast<int>() : <int>[arguments['handle']];
+  }
+
   static final Map<int, StreamController<Event>> _observers =
       <int, StreamController<Event>>{};
 
@@ -152,6 +171,21 @@ class FirebaseDatabase {
     );
   }
 
+  /// Returns counters of the writes made with a `coalesce` window: how many
+  /// writes were made from Dart, how many were written to the database, how
+  /// many were saved by coalescing them, and how many are pending.
+  ///
+  /// Currently only supported on Android.
+  Future<Map<String, dynamic>> getWriteCoalescingStats() {
+    return _channel.invokeMapMethod<String, dynamic>(
+      'FirebaseDatabase#getWriteCoalescingStats',
+      <String, dynamic>{
+        'app': app?.name,
+        'databaseURL': databaseURL,
+      },
+    );
+  }
+
   /// The Firebase Database client automatically queues writes and sends them to
   /// the server at the earliest opportunity, depending on network connectivity.
   /// In some cases (e.g. offline usage) there may be a large number of writes
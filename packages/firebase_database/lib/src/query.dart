@@ -41,6 +41,12 @@ class Query {
   }
 
   Stream<Event> _observe(_EventType eventType) {
+    return _observeWith('Query#observe', <String, dynamic>{
+      'eventType': eventType.toString(),
+    });
+  }
+
+  Stream<Event> _observeWith(String method, Map<String, dynamic> arguments) {
     Future<int> _handle;
     // It's fine to let the StreamController be garbage collected once all the
     // subscribers have cancelled; this analyzer warning is safe to ignore.
@@ -48,14 +54,13 @@ class Query {
     controller = StreamController<Event>.broadcast(
       onListen: () {
         _handle = _database._channel.invokeMethod<int>(
-          'Query#observe',
+          method,
           <String, dynamic>{
             'app': _database.app?.name,
             'databaseURL': _database.databaseURL,
             'path': path,
             'parameters': _parameters,
-            'eventType': eventType.toString(),
-          },
+          }..addAll(arguments),
         ).then<int>((dynamic result) => result);
         _handle.then((int handle) {
           FirebaseDatabase._observers[handle] = controller;
@@ -98,6 +103,33 @@ class Query {
   /// Fires when the data at this location is updated. `previousChildKey` is null.
   Stream<Event> get onValue => _observe(_EventType.value);
 
+  /// Fires when children are added, removed, changed or moved, for each of
+  /// the given [eventTypes].
+  ///
+  /// Unlike listening to [onChildAdded], [onChildRemoved], [onChildChanged]
+  /// and [onChildMoved] separately, a single listener is registered with the
+  /// database. The kind of each change is given by [Event.type].
+  ///
+  /// If [batchSize] is set, the events are sent from the platform in batches
+  /// of at most [batchSize] events, once per frame, rather than one message
+  /// per event. This makes loading a large list, which fires an event for
+  /// each child, much faster. The events are still added to the stream one at
+  /// a time and in order.
+  ///
+  /// Currently only supported on Android.
+  Stream<Event> onChildEvents(Set<ChildEventType> eventTypes,
+      {int batchSize}) {
+    assert(eventTypes != null && eventTypes.isNotEmpty);
+    assert(batchSize == null || batchSize > 0);
+    final Map<String, dynamic> arguments = <String, dynamic>{
+      'eventTypes': eventTypes
+          .map((ChildEventType type) => _childEventTypes[type].toString())
+          .toList(),
+    };
+    if (batchSize != null) arguments['batchSize'] = batchSize;
+    return _observeWith('Query#observeMulti', arguments);
+  }
+
   /// Create a query constrained to only return child nodes with a value greater
   /// than or equal to the given value, using the given orderBy directive or
   /// priority as default, and optionally only child nodes with a key greater
@@ -29,7 +29,23 @@ void main() {
         log.add(methodCall);
         switch (methodCall.method) {
           case 'Query#observe':
+          case 'Query#observeMulti':
             return mockHandleId++;
+          case 'DatabaseReference#runAtomicOperation':
+            return <String, dynamic>{
+              'committed': true,
+              'snapshot': <String, dynamic>{
+                'key': 'foo',
+                'value': methodCall.arguments['value'],
+              },
+            };
+          case 'FirebaseDatabase#getWriteCoalescingStats':
+            return <String, dynamic>{
+              'writes': 3,
+              'flushes': 1,
+              'saved': 2,
+              'pending': 0,
+            };
           case 'FirebaseDatabase#setPersistenceEnabled':
             return true;
           case 'FirebaseDatabase#setPersistenceCacheSizeBytes':
@@ -227,6 +243,49 @@ void main() {
         );
       });
 
+      test('coalesced writes', () async {
+        final DatabaseReference reference = database.reference().child('foo');
+        const Duration coalesce = Duration(milliseconds: 100);
+        await reference.set('bar', coalesce: coalesce);
+        await reference.update(<String, dynamic>{'a': 1}, coalesce: coalesce);
+        final Map<String, dynamic> stats =
+            await database.getWriteCoalescingStats();
+        expect(stats['saved'], 2);
+        expect(
+          log,
+          <Matcher>[
+            isMethodCall(
+              'DatabaseReference#set',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'databaseURL': databaseURL,
+                'path': 'foo',
+                'value': 'bar',
+                'priority': null,
+                'coalesceMillis': 100,
+              },
+            ),
+            isMethodCall(
+              'DatabaseReference#update',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'databaseURL': databaseURL,
+                'path': 'foo',
+                'value': <String, dynamic>{'a': 1},
+                'coalesceMillis': 100,
+              },
+            ),
+            isMethodCall(
+              'FirebaseDatabase#getWriteCoalescingStats',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'databaseURL': databaseURL,
+              },
+            ),
+          ],
+        );
+      });
+
       test('setPriority', () async {
         final int priority = 42;
         await database.reference().child('foo').setPriority(priority);
@@ -283,6 +342,46 @@ void main() {
           throwsA(isInstanceOf<AssertionError>()),
         );
       });
+
+      test('atomic operations', () async {
+        final DatabaseReference reference = database.reference().child('foo');
+        final TransactionResult result =
+            await reference.increment(2, child: 'count');
+        expect(result.committed, isTrue);
+        expect(result.error, isNull);
+        expect(result.dataSnapshot.value, 2);
+        await reference.min(1);
+        await reference.max(5);
+        await reference.append('entry');
+        await reference.compareAndSet('old', 'new', child: 'state');
+        Matcher isOperation(String operation, dynamic value,
+            {String child, dynamic expected}) {
+          return isMethodCall(
+            'DatabaseReference#runAtomicOperation',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'path': 'foo',
+              'operation': operation,
+              'child': child,
+              'value': value,
+              'expected': expected,
+            },
+          );
+        }
+
+        expect(
+          log,
+          <Matcher>[
+            isOperation('increment', 2, child: 'count'),
+            isOperation('min', 1),
+            isOperation('max', 5),
+            isOperation('append', 'entry'),
+            isOperation('compareAndSet', 'new',
+                child: 'state', expected: 'old'),
+          ],
+        );
+      });
     });
 
     group('$OnDisconnect', () {
@@ -566,6 +665,182 @@ void main() {
           ],
         );
       });
+      test('observing several child event types', () async {
+        mockHandleId = 42;
+        final String path = 'messages';
+        final Query query = database.reference().child(path);
+        Future<void> simulateEvent(String eventType, String key) async {
+          // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+          // https://github.com/flutter/flutter/issues/33446
+          // ignore: deprecated_member_use
+          await BinaryMessages.handlePlatformMessage(
+            channel.name,
+            channel.codec.encodeMethodCall(
+              MethodCall('Event', <String, dynamic>{
+                'handle': 42,
+                'snapshot': <String, dynamic>{
+                  'key': key,
+                  'value': 'hello',
+                },
+                'previousSiblingKey': null,
+                'eventType': eventType,
+              }),
+            ),
+            (_) {},
+          );
+        }
+
+        final AsyncQueue<Event> events = AsyncQueue<Event>();
+
+        // Subscribe and allow subscription to complete.
+        final Set<ChildEventType> eventTypes = Set<ChildEventType>.from(
+          <ChildEventType>[ChildEventType.added, ChildEventType.removed],
+        );
+        final StreamSubscription<Event> subscription =
+            query.onChildEvents(eventTypes).listen(events.add);
+        await Future<void>.delayed(const Duration(seconds: 0));
+
+        await simulateEvent('_EventType.childAdded', 'a');
+        await simulateEvent('_EventType.childRemoved', 'b');
+        final Event event1 = await events.remove();
+        final Event event2 = await events.remove();
+        expect(event1.type, ChildEventType.added);
+        expect(event1.snapshot.key, 'a');
+        expect(event2.type, ChildEventType.removed);
+        expect(event2.snapshot.key, 'b');
+
+        // Cancel subscription and allow cancellation to complete.
+        subscription.cancel();
+        await Future<void>.delayed(const Duration(seconds: 0));
+
+        expect(
+          log,
+          <Matcher>[
+            isMethodCall(
+              'Query#observeMulti',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'databaseURL': databaseURL,
+                'path': path,
+                'parameters': <String, dynamic>{},
+                'eventTypes': <String>[
+                  '_EventType.childAdded',
+                  '_EventType.childRemoved',
+                ],
+              },
+            ),
+            isMethodCall(
+              'Query#removeObserver',
+              arguments: <String, dynamic>{
+                'app': app.name,
+                'databaseURL': databaseURL,
+                'path': path,
+                'parameters': <String, dynamic>{},
+                'handle': 42,
+              },
+            ),
+          ],
+        );
+      });
+      test('observing batched child events', () async {
+        mockHandleId = 43;
+        final String path = 'messages';
+        final Query query = database.reference().child(path);
+        Future<void> simulateEvents(List<String> keys) async {
+          // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+          // https://github.com/flutter/flutter/issues/33446
+          // ignore: deprecated_member_use
+          await BinaryMessages.handlePlatformMessage(
+            channel.name,
+            channel.codec.encodeMethodCall(
+              MethodCall('Events', <String, dynamic>{
+                'handle': 43,
+                'events': keys
+                    .map((String key) => <String, dynamic>{
+                          'snapshot': <String, dynamic>{
+                            'key': key,
+                            'value': 'hello',
+                          },
+                          'previousSiblingKey': null,
+                          'eventType': '_EventType.childAdded',
+                        })
+                    .toList(),
+              }),
+            ),
+            (_) {},
+          );
+        }
+
+        final AsyncQueue<Event> events = AsyncQueue<Event>();
+
+        // Subscribe and allow subscription to complete.
+        final Set<ChildEventType> eventTypes =
+            Set<ChildEventType>.from(<ChildEventType>[ChildEventType.added]);
+        final StreamSubscription<Event> subscription = query
+            .onChildEvents(eventTypes, batchSize: 100)
+            .listen(events.add);
+        await Future<void>.delayed(const Duration(seconds: 0));
+
+        await simulateEvents(<String>['a', 'b', 'c']);
+        expect((await events.remove()).snapshot.key, 'a');
+        expect((await events.remove()).snapshot.key, 'b');
+        expect((await events.remove()).snapshot.key, 'c');
+
+        subscription.cancel();
+        await Future<void>.delayed(const Duration(seconds: 0));
+
+        expect(
+          log.first,
+          isMethodCall(
+            'Query#observeMulti',
+            arguments: <String, dynamic>{
+              'app': app.name,
+              'databaseURL': databaseURL,
+              'path': path,
+              'parameters': <String, dynamic>{},
+              'eventTypes': <String>['_EventType.childAdded'],
+              'batchSize': 100,
+            },
+          ),
+        );
+      });
+      test('observers sharing events', () async {
+        mockHandleId = 50;
+        final Query query = database.reference().child('shared');
+        final AsyncQueue<Event> events1 = AsyncQueue<Event>();
+        final AsyncQueue<Event> events2 = AsyncQueue<Event>();
+
+        // Subscribe and allow subscriptions to complete.
+        final StreamSubscription<Event> subscription1 =
+            query.onValue.listen(events1.add);
+        final StreamSubscription<Event> subscription2 =
+            query.onValue.listen(events2.add);
+        await Future<void>.delayed(const Duration(seconds: 0));
+
+        // TODO(hterkelsen): Remove this when defaultBinaryMessages is in stable.
+        // https://github.com/flutter/flutter/issues/33446
+        // ignore: deprecated_member_use
+        await BinaryMessages.handlePlatformMessage(
+          channel.name,
+          channel.codec.encodeMethodCall(
+            MethodCall('Event', <String, dynamic>{
+              'handles': <int>[50, 51],
+              'snapshot': <String, dynamic>{
+                'key': 'shared',
+                'value': 'hello',
+              },
+            }),
+          ),
+          (_) {},
+        );
+
+        expect((await events1.remove()).snapshot.value, 'hello');
+        expect((await events2.remove()).snapshot.value, 'hello');
+
+        subscription1.cancel();
+        subscription2.cancel();
+        await Future<void>.delayed(const Duration(seconds: 0));
+      });
     });
   });
 }